@@ -0,0 +1,80 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.benchmarks;
+
+import fr.wseduc.eliot.pojo.Applications;
+import fr.wseduc.eliot.services.ApplicationsParser;
+import io.vertx.core.buffer.Buffer;
+import org.openjdk.jmh.annotations.*;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLStreamException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unmarshalling of getProductEtabWS answers : StAX parser of the connector against the former JAXB path,
+ * which created a JAXBContext for each answer.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ApplicationsParserBenchmark {
+
+	@Param({ "1", "6" })
+	public int applications;
+
+	private String payload;
+	private Buffer buffer;
+	private JAXBContext context;
+
+	@Setup
+	public void setup() throws JAXBException {
+		final String[] codes = { "ABSENCES", "AGENDA", "NOTES", "SCOLARITE", "TDBASE", "TEXTES" };
+		final StringBuilder sb = new StringBuilder("<LIST>");
+		for (int i = 0; i < applications; i++) {
+			sb.append("<APPLI code=\"").append(codes[i % codes.length]).append("\"/>");
+		}
+		payload = sb.append("</LIST>").toString();
+		buffer = Buffer.buffer(payload);
+		context = JAXBContext.newInstance(Applications.class);
+	}
+
+	@Benchmark
+	public Applications stax() throws XMLStreamException {
+		return ApplicationsParser.parse(buffer);
+	}
+
+	@Benchmark
+	public Applications jaxbCachedContext() throws JAXBException {
+		return (Applications) context.createUnmarshaller().unmarshal(new StringReader(payload));
+	}
+
+	@Benchmark
+	public Applications jaxbNewContext() throws JAXBException {
+		return (Applications) JAXBContext.newInstance(Applications.class)
+				.createUnmarshaller().unmarshal(new StringReader(buffer.toString()));
+	}
+
+}
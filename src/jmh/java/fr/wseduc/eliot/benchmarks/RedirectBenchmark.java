@@ -0,0 +1,81 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.benchmarks;
+
+import fr.wseduc.eliot.controllers.EliotController.Application;
+import fr.wseduc.eliot.entitlements.EntitlementIndex;
+import fr.wseduc.eliot.entitlements.RedirectTemplates;
+import fr.wseduc.eliot.pojo.Applications;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CAS redirect of a launch : pre-encoded templates against the former construction, which url encoded
+ * the whole service parameter on each request.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RedirectBenchmark {
+
+	private static final String ELIOT_URI = "https://eliot.example.com/eliot-saas/action/login?appli=ENT";
+	private static final String HOST = "https://ent.example.com";
+	private static final String RNE = "0000042Z";
+
+	private final Application application = Application.NOTES;
+	private RedirectTemplates templates;
+
+	@Setup
+	public void setup() {
+		final Applications apps = new Applications();
+		apps.setRne(RNE);
+		for (Application a : Application.values()) {
+			final fr.wseduc.eliot.pojo.Application app = new fr.wseduc.eliot.pojo.Application();
+			app.setCode(a.name());
+			apps.getApplications().add(app);
+		}
+		final Map<String, Applications> appsByStructure = new HashMap<>();
+		appsByStructure.put("structure-42", apps);
+		templates = new RedirectTemplates(ELIOT_URI, 64);
+		templates.rebuild(EntitlementIndex.build(appsByStructure));
+	}
+
+	@Benchmark
+	public String templates() {
+		return templates.redirect(HOST, RNE, application);
+	}
+
+	@Benchmark
+	public String urlEncoder() throws UnsupportedEncodingException {
+		return "/adapter?eliot=" + application.name().toLowerCase() + "#" + HOST +
+				"/cas/login?ticketAttributeName=casTicket&service=" +
+				URLEncoder.encode(ELIOT_URI + "&rne=" + RNE + "&module=" + application.name() +
+						"&hostCAS=" + URLEncoder.encode(HOST + "/cas", "UTF-8"), "UTF-8");
+	}
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.benchmarks;
+
+import fr.wseduc.eliot.controllers.EliotController.Application;
+import fr.wseduc.eliot.entitlements.EntitlementIndex;
+import fr.wseduc.eliot.pojo.Applications;
+import fr.wseduc.eliot.utils.LruCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Structure to RNE resolution of a launch : entitlement index lookup and launch cache hit, against the
+ * former scan of the applications map, which walked the application list of each user structure.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RneLookupBenchmark {
+
+	@Param({ "1000", "10000" })
+	public int structures;
+
+	private final Application application = Application.NOTES;
+	private Map<String, Applications> appsByStructure;
+	private EntitlementIndex index;
+	private LruCache<String, String> launchCache;
+	private List<List<String>> users;
+	private int next;
+
+	@Setup
+	public void setup() {
+		final Random random = new Random(42);
+		final Application[] applications = Application.values();
+		appsByStructure = new HashMap<>();
+		for (int i = 0; i < structures; i++) {
+			final Applications apps = new Applications();
+			apps.setRne(String.format("%07dZ", i));
+			for (Application a : applications) {
+				if (random.nextBoolean()) {
+					final fr.wseduc.eliot.pojo.Application app = new fr.wseduc.eliot.pojo.Application();
+					app.setCode(a.name());
+					apps.getApplications().add(app);
+				}
+			}
+			appsByStructure.put("structure-" + i, apps);
+		}
+		index = EntitlementIndex.build(appsByStructure);
+		launchCache = new LruCache<>(10000, 0);
+		users = new ArrayList<>();
+		for (int i = 0; i < 1024; i++) {
+			final List<String> s = new ArrayList<>();
+			s.add("structure-" + random.nextInt(structures));
+			s.add("structure-" + random.nextInt(structures));
+			users.add(s);
+			final String rne = index.rne(s, application);
+			if (rne != null) {
+				launchCache.put("user-" + i + ":" + application.name(), rne);
+			}
+		}
+	}
+
+	@Benchmark
+	public String index() {
+		return index.rne(users.get(next++ & 1023), application);
+	}
+
+	@Benchmark
+	public String launchCache() {
+		return launchCache.get("user-" + (next++ & 1023) + ":" + application.name());
+	}
+
+	@Benchmark
+	public String mapScan() {
+		for (String structureId : users.get(next++ & 1023)) {
+			final Applications apps = appsByStructure.get(structureId);
+			if (apps == null) continue;
+			for (fr.wseduc.eliot.pojo.Application app : apps.getApplications()) {
+				if (application.name().equals(app.getCode())) {
+					return apps.getRne();
+				}
+			}
+		}
+		return null;
+	}
+
+}
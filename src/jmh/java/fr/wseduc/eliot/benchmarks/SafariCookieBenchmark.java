@@ -0,0 +1,128 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.benchmarks;
+
+import fr.wseduc.eliot.services.SafariCookieService;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.Cipher;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Safari cookie step of a launch : User-Agent matching, with and without the classification cache,
+ * and RSA encryption of the callback url, with a cipher per call as before, with the per thread cipher
+ * of the service and through the service worker pool.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SafariCookieBenchmark {
+
+	private static final Pattern SAFARI_PATTERN =
+			Pattern.compile("^.* Version/[0-9\\.]+ (Mobile/[A-Z0-9]+ )?Safari/[0-9\\.]+$");
+	private static final String[] USER_AGENTS = {
+			"Mozilla/5.0 (Macintosh; Intel Mac OS X 10_13_6) AppleWebKit/605.1.15 (KHTML, like Gecko) " +
+					"Version/12.0 Safari/605.1.15",
+			"Mozilla/5.0 (iPhone; CPU iPhone OS 12_0 like Mac OS X) AppleWebKit/605.1.15 (KHTML, like Gecko) " +
+					"Version/12.0 Mobile/15E148 Safari/604.1",
+			"Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) " +
+					"Chrome/70.0.3538.77 Safari/537.36",
+			"Mozilla/5.0 (Windows NT 10.0; Win64; x64; rv:63.0) Gecko/20100101 Firefox/63.0"
+	};
+	private static final byte[] CALLBACK = ("https://ent.example.com/eliot/notes?safariCookieCallback=true")
+			.getBytes(StandardCharsets.UTF_8);
+
+	private Vertx vertx;
+	private SafariCookieService service;
+	private KeyPair keyPair;
+	private Cipher cipher;
+	private int next;
+
+	@Setup
+	public void setup() throws GeneralSecurityException {
+		final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		keyPair = generator.generateKeyPair();
+		cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+		cipher.init(Cipher.ENCRYPT_MODE, keyPair.getPublic());
+		vertx = Vertx.vertx();
+		service = new SafariCookieService(vertx, new JsonObject()
+				.put("eliot-public-key", Base64.getEncoder().encodeToString(keyPair.getPublic().getEncoded())));
+	}
+
+	@TearDown
+	public void tearDown() {
+		vertx.close();
+	}
+
+	@Benchmark
+	public boolean userAgentPattern() {
+		return SAFARI_PATTERN.matcher(USER_AGENTS[next++ & 3]).matches();
+	}
+
+	@Benchmark
+	public boolean userAgentCached() {
+		return service.isSafari(USER_AGENTS[next++ & 3]);
+	}
+
+	@Benchmark
+	public byte[] rsaNewCipher() throws GeneralSecurityException {
+		final Cipher c = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+		c.init(Cipher.ENCRYPT_MODE, keyPair.getPublic());
+		return c.doFinal(CALLBACK);
+	}
+
+	@Benchmark
+	public byte[] rsaCachedCipher() throws GeneralSecurityException {
+		return cipher.doFinal(CALLBACK);
+	}
+
+	@Benchmark
+	public String rsaService() throws Exception {
+		final CompletableFuture<String> result = new CompletableFuture<>();
+		service.encrypt("https://ent.example.com/eliot/notes?safariCookieCallback=true",
+				new Handler<AsyncResult<String>>() {
+			@Override
+			public void handle(AsyncResult<String> ar) {
+				if (ar.succeeded()) {
+					result.complete(ar.result());
+				} else {
+					result.completeExceptionally(ar.cause());
+				}
+			}
+		});
+		return result.get();
+	}
+
+}
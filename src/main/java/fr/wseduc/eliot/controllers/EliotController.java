@@ -21,47 +21,56 @@ package fr.wseduc.eliot.controllers;
 
 import fr.wseduc.bus.BusAddress;
 import fr.wseduc.cron.CronTrigger;
+import fr.wseduc.eliot.entitlements.EntitlementSnapshot;
+import fr.wseduc.eliot.entitlements.RedirectTemplates;
+import fr.wseduc.eliot.entitlements.SnapshotStore;
+import fr.wseduc.eliot.metrics.LaunchMetrics;
+import fr.wseduc.eliot.metrics.SyncMetrics;
 import fr.wseduc.eliot.pojo.Applications;
+import fr.wseduc.eliot.services.ApplicationsParser;
+import fr.wseduc.eliot.services.EliotSaasClient;
+import fr.wseduc.eliot.services.EliotSaasClient.SaasResponse;
+import fr.wseduc.eliot.services.SafariCookieService;
+import fr.wseduc.eliot.utils.AsyncWindow;
+import fr.wseduc.eliot.utils.LruCache;
 import fr.wseduc.rs.Get;
+import fr.wseduc.security.ActionType;
 import fr.wseduc.security.SecuredAction;
 import fr.wseduc.webutils.http.BaseController;
 import fr.wseduc.webutils.request.CookieHelper;
+import io.vertx.core.shareddata.AsyncMap;
+import io.vertx.core.shareddata.Counter;
 import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Lock;
+import org.entcore.common.http.filter.ResourceFilter;
+import org.entcore.common.http.filter.SuperAdminFilter;
 import org.entcore.common.http.response.DefaultPages;
 import org.entcore.common.neo4j.Neo4j;
 import org.entcore.common.neo4j.StatementsBuilder;
 import org.entcore.common.user.UserInfos;
 import org.entcore.common.user.UserUtils;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.http.*;
-import io.vertx.core.impl.VertxInternal;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
-import io.vertx.core.spi.cluster.ClusterManager;
 import org.vertx.java.core.http.RouteMatcher;
 
 
-import javax.crypto.Cipher;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBException;
-import javax.xml.bind.Unmarshaller;
-import java.io.StringReader;
-import java.io.UnsupportedEncodingException;
-import java.net.URI;
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
 import java.net.URISyntaxException;
-import java.net.URLEncoder;
-import java.security.KeyFactory;
-import java.security.NoSuchAlgorithmException;
-import java.security.PublicKey;
-import java.security.spec.InvalidKeySpecException;
-import java.security.spec.X509EncodedKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.regex.Pattern;
 
 import static fr.wseduc.webutils.Utils.handlerToAsyncHandler;
 import static fr.wseduc.webutils.Utils.isNotEmpty;
@@ -71,18 +80,62 @@ public class EliotController extends BaseController {
 
 	private Neo4j neo4j = Neo4j.getInstance();
 
-	enum Application { ABSENCES, AGENDA, NOTES, SCOLARITE, TDBASE, TEXTES }
+	public enum Application { ABSENCES, AGENDA, NOTES, SCOLARITE, TDBASE, TEXTES }
 
-	private Map<String, Applications> allowedApplication;
+	private boolean clustered;
+	private final String nodeId = UUID.randomUUID().toString();
+	private volatile EntitlementSnapshot snapshot = EntitlementSnapshot.EMPTY;
+	private LruCache<String, String> launchCache;
+	private RedirectTemplates redirectTemplates;
+	private SnapshotStore snapshotStore;
+	private final LaunchMetrics launchMetrics = new LaunchMetrics();
+	private final SyncMetrics syncMetrics = new SyncMetrics();
 	private final Map<String, String> roles = new HashMap<>();
+	private final Map<String, String> etags = new HashMap<>();
+	private final Map<String, String> reconciledFingerprints = new HashMap<>();
+	private final Set<String> registeredApplications = new HashSet<>();
+	private Set<String> persistedActiveRne;
+	private boolean differentialSync;
+	private int registryWindow;
+	private int linkRolesParallelism;
+	private boolean scolariteIncremental;
+	private int scolariteBatchSize;
+	private boolean scolariteFunctionExists = false;
+	private boolean scolariteFullSyncDone = false;
 	private long exportedDelay;
-	private HttpClient client;
-	private String appliCode;
-	private PublicKey eliotPublicKey;
+	private long syncLockTimeout;
+	private long syncLockWait;
+	private long syncRetryDelay;
+	private long syncBudget;
+	private long maxStaleness;
+	private int syncShards;
+	private long shardSlice;
+	private int runningSyncs = 0;
+	private long syncEpoch = 0;
+	private EliotSaasClient saasClient;
+	private WorkerExecutor parserExecutor;
+	private SafariCookieService safariCookieService;
 	private String logoutCallBack;
-	private static final Pattern safariPattern =
-			Pattern.compile("^.* Version/[0-9\\.]+ (Mobile/[A-Z0-9]+ )?Safari/[0-9\\.]+$");
 
+	private static final String SNAPSHOT_ADDRESS = "fr.wseduc.eliot.snapshot";
+	private static final String SYNC_LOCK = "fr.wseduc.eliot.sync";
+	private static final String SYNC_MAP = "fr.wseduc.eliot.sync";
+	private static final String LAST_SYNC = "last-sync";
+	private static final String LAST_SHARD_SYNC = "last-shard-sync";
+	private static final String SNAPSHOT_NODE = "snapshot-node";
+	private static final String SYNC_EPOCH = "fr.wseduc.eliot.sync-epoch";
+	/**
+	 * Structures are sharded on the first 3 hex digits of their id, a stable key unlike the Neo4j node id.
+	 */
+	private static final int SHARD_KEY_LENGTH = 3;
+	private static final int SHARD_KEYS = 1 << (4 * SHARD_KEY_LENGTH);
+	private static final String APP_REGISTRY_ADDRESS = "wse.app.registry.bus";
+	/**
+	 * Class name of the anonymous handler which created the Eliot roles in the previous releases,
+	 * the existing roles grant the actions named after it. Frozen as a literal: it must not follow
+	 * the compiler numbering of the anonymous classes of this file.
+	 */
+	private static final String ROLE_ACTION_PREFIX = "fr.wseduc.eliot.controllers.EliotController$14";
 	public static final String SCOLARITE_EXTERNAL_ID = "SCOLARITE";
 	public static final JsonObject SCOLARITE = new JsonObject()
 			.put("externalId", SCOLARITE_EXTERNAL_ID)
@@ -94,66 +147,90 @@ public class EliotController extends BaseController {
 			Map<String, fr.wseduc.webutils.security.SecuredAction> securedActions) {
 		super.init(vertx, config, rm, securedActions);
 		exportedDelay = config.getLong("exported-delay", 5 * 60 * 1000l);
-		appliCode = config.getString("appli-code");
 		logoutCallBack = config.getString("logoutCallback");
+		differentialSync = config.getBoolean("differential-sync", true);
+		registryWindow = config.getInteger("registry-window", 8);
+		linkRolesParallelism = config.getInteger("link-roles-parallelism", 4);
+		scolariteIncremental = config.getBoolean("scolarite-incremental", true);
+		scolariteBatchSize = config.getInteger("scolarite-batch-size", 5000);
+		redirectTemplates = new RedirectTemplates(config.getString("eliotUri"), 64);
+		launchCache = new LruCache<>(config.getInteger("launch-cache-size", 10000),
+				config.getLong("launch-cache-ttl", 10 * 60 * 1000l));
+		final String snapshotPath = config.getString("snapshot-path");
+		if (isNotEmpty(snapshotPath)) {
+			snapshotStore = new SnapshotStore(snapshotPath);
+		}
 		LocalMap<Object, Object> server = vertx.sharedData().getLocalMap("server");
-		Boolean cluster = (Boolean) server.get("cluster");
-		String node = (String) server.get("node");
-		if (Boolean.TRUE.equals(cluster) && config.getBoolean("cluster", false)) {
-			ClusterManager cm = ((VertxInternal) vertx).getClusterManager();
-			allowedApplication = cm.getSyncMap("eliot");
-		} else {
-			allowedApplication = new HashMap<>();
+		clustered = Boolean.TRUE.equals(server.get("cluster")) && config.getBoolean("cluster", false);
+		syncLockTimeout = config.getLong("sync-lock-timeout", 60 * 60 * 1000l);
+		syncLockWait = config.getLong("sync-lock-wait", 5000l);
+		syncRetryDelay = config.getLong("sync-retry-delay", 60 * 1000l);
+		syncBudget = config.getLong("sync-budget", 30 * 60 * 1000l);
+		maxStaleness = config.getLong("max-staleness", 0l);
+		if (maxStaleness > 0 && maxStaleness < 1000) {
+			log.error("Invalid max-staleness " + maxStaleness + " ms, it must be at least 1000 ms : rolling sync disabled.");
+			maxStaleness = 0;
+		}
+		syncShards = config.getInteger("sync-shards", 96);
+		if (maxStaleness > 0 && maxStaleness / syncShards < 1000) {
+			log.warn("sync-shards " + syncShards + " gives slices shorter than 1 s, reduced to " +
+					maxStaleness / 1000 + ".");
+			syncShards = (int) (maxStaleness / 1000);
+		}
+		syncShards = Math.max(1, Math.min(SHARD_KEYS, syncShards));
+		shardSlice = maxStaleness / syncShards;
+		if (clustered) {
+			eb.consumer(SNAPSHOT_ADDRESS, new Handler<Message<JsonObject>>() {
+				@Override
+				public void handle(Message<JsonObject> message) {
+					if (!nodeId.equals(message.body().getString("node"))) {
+						receiveSnapshot(message.body(), message.body().getString("node"));
+					}
+				}
+			});
+			eb.consumer(SNAPSHOT_ADDRESS + "." + nodeId, new Handler<Message<JsonObject>>() {
+				@Override
+				public void handle(Message<JsonObject> message) {
+					if (snapshot.getVersion() > 0) {
+						message.reply(snapshot.encode(etags).put("node", nodeId));
+					} else {
+						message.fail(404, "empty.snapshot");
+					}
+				}
+			});
 		}
+		parserExecutor = vertx.createSharedWorkerExecutor("eliot-parser", config.getInteger("parser-pool-size", 2));
 		try {
-			URI uri = new URI(config.getString("uri"));
-			HttpClientOptions options = new HttpClientOptions()
-					.setDefaultHost(uri.getHost())
-					.setDefaultPort(uri.getPort())
-					.setMaxPoolSize(16)
-					.setSsl("https".equals(uri.getScheme()))
-					.setKeepAlive(false);
-			client = vertx.createHttpClient(options);
+			saasClient = new EliotSaasClient(vertx, config);
 		} catch (URISyntaxException e) {
 			log.error(e.getMessage(), e);
 		}
-		final String publicKey = config.getString("eliot-public-key");
-		if (isNotEmpty(publicKey)) {
-			try {
-				X509EncodedKeySpec spec = new X509EncodedKeySpec(Base64.getDecoder().decode(publicKey));
-				KeyFactory kf = KeyFactory.getInstance("RSA");
-				eliotPublicKey = kf.generatePublic(spec);
-			} catch (InvalidKeySpecException | NoSuchAlgorithmException e) {
-				log.error(e.getMessage(), e);
-			}
-		}
+		safariCookieService = new SafariCookieService(vertx, config);
 
-		String defaultSyncCron = "0 45 23 * * ? *";
-		if (Boolean.TRUE.equals(cluster) && node != null && !node.trim().isEmpty()) {
-			try {
-				if (Integer.parseInt(node.replaceAll("[A-Za-z]+", "")) % 2 == 0) {
-					vertx.setTimer(120000, new Handler<Long>() {
-						@Override
-						public void handle(Long aLong) {
-							configureApplications(null);
-						}
-					});
-					defaultSyncCron = "0 50 23 * * ? *";
-				} else {
-					configureApplications(null);
-				}
-			} catch (NumberFormatException e) {
-				configureApplications(null);
+		final long startupSyncMaxAge = config.getLong("startup-sync-max-age", 24 * 60 * 60 * 1000l);
+		loadSnapshot(new Handler<Void>() {
+			@Override
+			public void handle(Void v) {
+				pullSnapshot(new Handler<Void>() {
+					@Override
+					public void handle(Void v) {
+						sync(null, null, snapshot.getVersion() > 0 ?
+								System.currentTimeMillis() - startupSyncMaxAge : System.currentTimeMillis());
+					}
+				});
 			}
-		} else {
-			configureApplications(null);
+		});
+		if (maxStaleness > 0) {
+			scheduleShardSync(0);
+			return;
 		}
+		final String defaultSyncCron = "0 45 23 * * ? *";
 		final String syncCron = config.getString("syncCron", defaultSyncCron);
 		try {
 			new CronTrigger(vertx, syncCron).schedule(new Handler<Long>() {
 				@Override
 				public void handle(Long event) {
-					configureApplications(null);
+					sync(null, null, System.currentTimeMillis());
 				}
 			});
 		} catch (ParseException e) {
@@ -161,6 +238,26 @@ public class EliotController extends BaseController {
 		}
 	}
 
+	/**
+	 * Rolling sync, replacing the nightly one when max-staleness is set : structures are spread over
+	 * sync-shards shards by the first digits of their id and one shard is refreshed per slice of max-staleness / sync-shards,
+	 * so that every structure is refreshed within max-staleness and the load stays flat through the day.
+	 * Slices are aligned on the wall clock, all the nodes agree on the shard to refresh.
+	 * @param previous start of the previous slice, a timer firing early does not refresh the same shard twice.
+	 */
+	private void scheduleShardSync(long previous) {
+		final long now = System.currentTimeMillis();
+		final long next = (Math.max(now, previous) / shardSlice + 1) * shardSlice;
+		vertx.setTimer(next - now, new Handler<Long>() {
+			@Override
+			public void handle(Long event) {
+				scheduleShardSync(next);
+				sync(null, (int) ((next / shardSlice) % syncShards), next);
+			}
+		});
+	}
+
+
 	@Get("/absences")
 	@SecuredAction("eliot.absences")
 	public void absences(final HttpServerRequest request) {
@@ -197,161 +294,163 @@ public class EliotController extends BaseController {
 		buildURI(request, Application.TEXTES);
 	}
 
+	@Get("/sync/metrics")
+	@SecuredAction(value = "", type = ActionType.RESOURCE)
+	@ResourceFilter(SuperAdminFilter.class)
+	public void syncMetrics(final HttpServerRequest request) {
+		renderJson(request, syncMetricsJson());
+	}
+
+	private JsonObject syncMetricsJson() {
+		final JsonObject metrics = syncMetrics.toJson().put("saasClient", saasClient.metrics());
+		if (maxStaleness > 0) {
+			metrics.put("rolling", new JsonObject()
+					.put("maxStaleness", maxStaleness)
+					.put("shards", syncShards)
+					.put("slice", shardSlice)
+					.put("snapshotBuiltAt", snapshot.getBuiltAt()));
+		}
+		return metrics;
+	}
+
+	@Get("/metrics")
+	public void metrics(final HttpServerRequest request) {
+		if (!config.getBoolean("metrics-enabled", false)) {
+			notFound(request);
+			return;
+		}
+		final String token = config.getString("metrics-token");
+		if (isNotEmpty(token) && !authorized("Bearer " + token, request.headers().get("Authorization"))) {
+			unauthorized(request);
+			return;
+		}
+		request.response()
+				.putHeader("Content-Type", "text/plain; version=0.0.4; charset=utf-8")
+				.end(launchMetrics.toPrometheus());
+	}
+
+	private static boolean authorized(String expected, String authorization) {
+		return authorization != null && MessageDigest.isEqual(
+				expected.getBytes(StandardCharsets.UTF_8), authorization.getBytes(StandardCharsets.UTF_8));
+	}
+
 	private void buildURI(final HttpServerRequest request, final Application application) {
-		safariCookie(request, new Handler<Boolean>() {
+		final long start = System.nanoTime();
+		launchMetrics.launch(application);
+		UserUtils.getUserInfos(eb, request, new Handler<UserInfos>() {
 			@Override
-			public void handle(Boolean execute) {
-				if (Boolean.TRUE.equals(execute)) {
-					getRne(request, application, new Handler<String>() {
-
+			public void handle(UserInfos user) {
+				launchMetrics.record(application, LaunchMetrics.Phase.SESSION, start);
+				if (user == null) {
+					deny(request, application);
+					return;
+				}
+				final LaunchContext context = new LaunchContext(request, application, user, start);
+				if (!safariCookie(context)) return;
+				final long rneStart = System.nanoTime();
+				final String rne = getRne(context);
+				launchMetrics.record(application, LaunchMetrics.Phase.RNE, rneStart);
+				if (rne == null) {
+					deny(request, application);
+					return;
+				}
+				final long redirectStart = System.nanoTime();
+				final String uri = redirectTemplates.redirect(
+						getScheme(request) + "://" + getHost(request), rne, application);
+				launchMetrics.record(application, LaunchMetrics.Phase.REDIRECT, redirectStart);
+				if (isNotEmpty(logoutCallBack)) {
+					CookieHelper.set("logoutCallback", logoutCallBack, request);
+					UserUtils.removeSessionAttribute(eb, user.getUserId(),
+							THEME_ATTRIBUTE + getHost(request),
+							new Handler<Boolean>() {
 						@Override
-						public void handle(String rne) {
-							if (rne != null) {
-								final StringBuilder uri = new StringBuilder();
-								final String host = getScheme(request) + "://" + getHost(request);
-								uri.append("/adapter?eliot=" + application.name().toLowerCase() + "#")
-										.append(host)
-										.append("/cas/login?ticketAttributeName=casTicket&service=");
-								final StringBuilder eliotUri = new StringBuilder();
-								try {
-									eliotUri.append(config.getString("eliotUri"))
-											.append("&rne=").append(rne)
-											.append("&module=").append(application.name())
-											.append("&hostCAS=").append(URLEncoder.encode(host + "/cas", "UTF-8"));
-									uri.append(URLEncoder.encode(eliotUri.toString(), "UTF-8"));
-									if (isNotEmpty(logoutCallBack)) {
-										UserUtils.getUserInfos(eb, request, new Handler<UserInfos>() {
-											@Override
-											public void handle(UserInfos user) {
-												if (user != null) {
-													CookieHelper.set("logoutCallback", logoutCallBack, request);
-													UserUtils.removeSessionAttribute(eb, user.getUserId(),
-															THEME_ATTRIBUTE + getHost(request),
-															new Handler<Boolean>() {
-														@Override
-														public void handle(Boolean event) {
-															redirect(request, uri.toString());
-														}
-													});
-												} else {
-													redirect(request, uri.toString());
-												}
-											}
-										});
-									} else {
-										redirect(request, uri.toString());
-									}
-								} catch (UnsupportedEncodingException e) {
-									log.error(e.getMessage(), e);
-									deny(request);
-								}
-							} else {
-								log.error("Rne is null.");
-								deny(request);
-							}
+						public void handle(Boolean event) {
+							redirect(request, uri);
+							launchMetrics.record(application, LaunchMetrics.Phase.TOTAL, start);
 						}
 					});
+				} else {
+					redirect(request, uri);
+					launchMetrics.record(application, LaunchMetrics.Phase.TOTAL, start);
 				}
 			}
 		});
 	}
 
-	private void safariCookie(final HttpServerRequest request, final Handler<Boolean> handler) {
+	/**
+	 * @return false if the request was answered with the Eliot Safari cookie redirect or an error.
+	 */
+	private boolean safariCookie(final LaunchContext context) {
+		final long start = System.nanoTime();
+		final HttpServerRequest request = context.getRequest();
+		final Application application = context.getApplication();
+		final UserInfos user = context.getUser();
 		final String scc = request.params().get("safariCookieCallback");
 		if (scc != null) {
-			UserUtils.getUserInfos(eb, request, new Handler<UserInfos>() {
-				@Override
-				public void handle(UserInfos user) {
-					if (user != null) {
-						UserUtils.addSessionAttribute(eb, user.getUserId(), "safariEliotCookie", scc, null);
-					}
-				}
-			});
-			handler.handle(true);
-			return;
+			UserUtils.addSessionAttribute(eb, user.getUserId(), "safariEliotCookie", scc, null);
+			launchMetrics.record(application, LaunchMetrics.Phase.SAFARI_COOKIE, start);
+			return true;
 		}
-		if (eliotPublicKey != null && request.headers().get("User-Agent") != null &&
-				safariPattern.matcher(request.headers().get("User-Agent")).matches()) {
-			UserUtils.getUserInfos(eb, request, new Handler<UserInfos>() {
+		if (safariCookieService.isEnabled() && user.getAttribute("safariEliotCookie") == null &&
+				safariCookieService.isSafari(request.headers().get("User-Agent"))) {
+			final String callbackUri = getScheme(request) + "://" + getHost(request) +
+					request.uri() + (!request.uri().contains("?") ? "?":"&") +
+					"safariCookieCallback=true";
+			safariCookieService.encrypt(callbackUri, new Handler<AsyncResult<String>>() {
 				@Override
-				public void handle(UserInfos user) {
-					if (user != null) {
-						if (user.getAttribute("safariEliotCookie") == null) {
-							try {
-								final String callbackUri = getScheme(request) + "://" + getHost(request) +
-										request.uri() + (!request.uri().contains("?") ? "?":"&") +
-										"safariCookieCallback=true";
-								final Cipher c = Cipher.getInstance("RSA/ECB/PKCS1Padding");
-								c.init(Cipher.ENCRYPT_MODE, eliotPublicKey);
-								final String eUri = URLEncoder.encode(Base64.getEncoder().encodeToString(
-										c.doFinal(callbackUri.getBytes("UTF-8"))), "UTF-8");
-								final String uri =
-										"/eliot-saas-util/action/utils/domainUtils" +
-										"?rUrl=" + eUri + "&t=" + System.currentTimeMillis();
-								redirect(request, config.getString("uri"), uri);
-							} catch (Exception e) {
-								log.error("Error encrypting rsa eliot safari url");
-								renderError(request);
-							}
-							handler.handle(false);
-						} else {
-							handler.handle(true);
-						}
+				public void handle(AsyncResult<String> ar) {
+					launchMetrics.record(application, LaunchMetrics.Phase.SAFARI_COOKIE, start);
+					if (ar.succeeded()) {
+						final String uri =
+								"/eliot-saas-util/action/utils/domainUtils" +
+								"?rUrl=" + ar.result() + "&t=" + System.currentTimeMillis();
+						redirect(request, config.getString("uri"), uri);
 					} else {
-						unauthorized(request, "invalid.userInfos");
-						handler.handle(false);
+						log.error("Error encrypting rsa eliot safari url", ar.cause());
+						renderError(request);
 					}
+					launchMetrics.record(application, LaunchMetrics.Phase.TOTAL, context.getStart());
 				}
 			});
-		} else {
-			handler.handle(true);
+			return false;
 		}
+		launchMetrics.record(application, LaunchMetrics.Phase.SAFARI_COOKIE, start);
+		return true;
 	}
 
-	private void getRne(final HttpServerRequest request, final Application application,
-			final Handler<String> handler) {
-		UserUtils.getUserInfos(eb, request, new Handler<UserInfos>() {
-			@Override
-			public void handle(UserInfos user) {
-				boolean allowRecheck = false;
-				if (user != null) {
-					final Collection<String> structures;
-					if (user.getFunctions() != null &&
-							("Teacher".equals(user.getType()) || "Personnel".equals(user.getType()))) {
-						structures = new HashSet<>();
-						for (UserInfos.Function f : user.getFunctions().values()) {
-							if (!"-".equals(f.getCode()) && f.getFunctionName() != null) {
-								structures.addAll(f.getScope());
-							}
-						}
-						allowRecheck = true;
-					} else {
-						structures = user.getStructures();
-					}
-					if (structuresToRne(structures)) return;
+	private String getRne(final LaunchContext context) {
+		final UserInfos user = context.getUser();
+		final Application application = context.getApplication();
+		final EntitlementSnapshot current = snapshot;
+		final String cacheKey = user.getUserId() + ":" + application.name();
+		final String cachedRne = launchCache.get(cacheKey);
+		if (cachedRne != null) {
+			return cachedRne;
+		}
+		String rne;
+		if (user.getFunctions() != null &&
+				("Teacher".equals(user.getType()) || "Personnel".equals(user.getType()))) {
+			final Set<String> structures = new HashSet<>();
+			for (UserInfos.Function f : user.getFunctions().values()) {
+				if (!"-".equals(f.getCode()) && f.getFunctionName() != null) {
+					structures.addAll(f.getScope());
 				}
-				if (allowRecheck && structuresToRne(user.getStructures())) return;
-				deny(request);
 			}
-
-			private boolean structuresToRne(Collection<String> structures) {
-				for (String structure : structures) {
-					Applications apps = allowedApplication.get(structure);
-					if (apps != null && apps.getRne() != null) {
-						for (fr.wseduc.eliot.pojo.Application app : apps.getApplications()) {
-							if (application.name().equals(app.getCode())) {
-								handler.handle(apps.getRne());
-								return true;
-							}
-						}
-					}
-				}
-				return false;
+			rne = current.getIndex().rne(structures, application);
+			if (rne == null) {
+				rne = current.getIndex().rne(user.getStructures(), application);
 			}
-		});
+		} else {
+			rne = current.getIndex().rne(user.getStructures(), application);
+		}
+		if (rne != null && current == snapshot) {
+			launchCache.put(cacheKey, rne);
+		}
+		return rne;
 	}
 
-	private void deny(HttpServerRequest request) {
+	private void deny(HttpServerRequest request, Application application) {
+		launchMetrics.deny(application);
 		request.response().setStatusCode(401).setStatusMessage("Unauthorized")
 				.putHeader("content-type", "text/html").end(DefaultPages.UNAUTHORIZED.getPage());
 	}
@@ -361,7 +460,7 @@ public class EliotController extends BaseController {
 		String action = message.body().getString("action", "");
 		switch (action) {
 			case "exported" :
-				setScolariteGroups(new Handler<Void>() {
+				setScolariteGroups(scolariteScope(message), new Handler<Void>() {
 					@Override
 					public void handle(Void v) {
 						exported(message);
@@ -373,28 +472,75 @@ public class EliotController extends BaseController {
 		}
 	}
 
-	private void setScolariteGroups(final Handler<Void> handler) {
+	@BusAddress("fr.wseduc.eliot")
+	public void eliotHandle(final Message<JsonObject> message) {
+		String action = message.body().getString("action", "");
+		switch (action) {
+			case "snapshot-info" :
+				message.reply(new JsonObject()
+						.put("status", "ok")
+						.put("result", snapshot.toJson())
+				);
+				break;
+			case "launch-metrics" :
+				message.reply(new JsonObject()
+						.put("status", "ok")
+						.put("result", launchMetrics.toJson())
+				);
+				break;
+			case "sync-metrics" :
+				message.reply(new JsonObject()
+						.put("status", "ok")
+						.put("result", syncMetricsJson())
+				);
+				break;
+			default:
+				sendError(message, "invalid.action");
+		}
+	}
+
+	/**
+	 * @return the structures whose SCOLARITE groups must be recomputed after an export, null for all structures.
+	 * The first sync of the node is always a full one, the next ones are restricted to the structures listed
+	 * in the exported event. An export which does not list its structures recomputes all of them.
+	 */
+	private JsonArray scolariteScope(Message<JsonObject> message) {
+		if (!scolariteIncremental || !scolariteFullSyncDone) {
+			return null;
+		}
+		return message.body().getJsonArray("structures");
+	}
+
+	private void setScolariteGroups(final JsonArray structures, final Handler<Void> handler) {
+		if (scolariteFunctionExists) {
+			addScolariteFunction(structures, handler);
+			return;
+		}
 		String query =
 				"MATCH (p:Profile {name:'Personnel'})<-[:COMPOSE]-(f:Function {externalId : {functionEID}}) " +
 				"RETURN count(*) > 0 as exists ";
 		JsonObject params = new JsonObject().put("functionEID", SCOLARITE_EXTERNAL_ID);
+		syncMetrics.neo4jCall();
 		neo4j.execute(query, params, new Handler<Message<JsonObject>>() {
 			@Override
 			public void handle(Message<JsonObject> message) {
 				JsonArray res = message.body().getJsonArray("result");
 				if ("ok".equals(message.body().getString("status")) && res != null && res.size() == 1 &&
 						res.getJsonObject(0).getBoolean("exists", false)) {
-					addScolariteFunction(handler);
+					scolariteFunctionExists = true;
+					addScolariteFunction(structures, handler);
 				} else {
 					String query =
 							"MATCH (p:Profile { name : 'Personnel'}) " +
 							"CREATE p<-[:COMPOSE]-(f:Function {props})";
 					JsonObject params = new JsonObject().put("props", SCOLARITE);
+					syncMetrics.neo4jCall();
 					neo4j.execute(query, params, new Handler<Message<JsonObject>>() {
 						@Override
 						public void handle(Message<JsonObject> message) {
 							if ("ok".equals(message.body().getString("status"))) {
-								addScolariteFunction(handler);
+								scolariteFunctionExists = true;
+								addScolariteFunction(structures, handler);
 							} else {
 								handler.handle(null);
 							}
@@ -402,87 +548,190 @@ public class EliotController extends BaseController {
 					});
 				}
 			}
+		});
+	}
 
-			private void addScolariteFunction(final Handler<Void> handler) {
-				String query =
-						"MATCH (u:User)-[:IN]->(:ProfileGroup)-[:DEPENDS]->(s:Structure) " +
-						"WHERE LENGTH(FILTER(gId IN u.functions WHERE gId =~ '.*\\\\$(EDU|DIR)\\\\$.*')) > 0 " +
-						"RETURN s.id as structureId, COLLECT(u.id) as users " +
-						"UNION " +
-						"MATCH (f:Function {externalId: 'ADMIN_LOCAL'})<-[:CONTAINS_FUNCTION*0..1]-()" +
-						"<-[rf:HAS_FUNCTION]-(u:User)-[:IN]->(:ProfileGroup)-[:DEPENDS]->(s:Structure) " +
-						"RETURN s.id as structureId, COLLECT(u.id) as users ";
-				neo4j.execute(query, (JsonObject) null, new Handler<Message<JsonObject>>() {
+	private void addScolariteFunction(final JsonArray structures, final Handler<Void> handler) {
+		final String query;
+		final JsonObject params;
+		if (structures == null) {
+			query =
+					"MATCH (u:User)-[:IN]->(:ProfileGroup)-[:DEPENDS]->(s:Structure) " +
+					"WHERE ANY(gId IN u.functions WHERE gId CONTAINS '$EDU$' OR gId CONTAINS '$DIR$') " +
+					"RETURN s.id as structureId, COLLECT(u.id) as users " +
+					"UNION " +
+					"MATCH (f:Function {externalId: 'ADMIN_LOCAL'})<-[:CONTAINS_FUNCTION*0..1]-()" +
+					"<-[rf:HAS_FUNCTION]-(u:User)-[:IN]->(:ProfileGroup)-[:DEPENDS]->(s:Structure) " +
+					"RETURN s.id as structureId, COLLECT(u.id) as users ";
+			params = null;
+		} else {
+			query =
+					"MATCH (s:Structure)<-[:DEPENDS]-(:ProfileGroup)<-[:IN]-(u:User) " +
+					"WHERE s.id IN {structures} " +
+					"AND ANY(gId IN u.functions WHERE gId CONTAINS '$EDU$' OR gId CONTAINS '$DIR$') " +
+					"RETURN s.id as structureId, COLLECT(u.id) as users " +
+					"UNION " +
+					"MATCH (s:Structure)<-[:DEPENDS]-(:ProfileGroup)<-[:IN]-(u:User)-[rf:HAS_FUNCTION]->()" +
+					"-[:CONTAINS_FUNCTION*0..1]->(f:Function {externalId: 'ADMIN_LOCAL'}) " +
+					"WHERE s.id IN {structures} " +
+					"RETURN s.id as structureId, COLLECT(u.id) as users ";
+			params = new JsonObject().put("structures", structures);
+		}
+		syncMetrics.neo4jCall();
+		neo4j.execute(query, params, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				JsonArray res = message.body().getJsonArray("result");
+				if ("ok".equals(message.body().getString("status")) && res != null) {
+					final List<JsonObject> rows = new ArrayList<>();
+					for (Object o: res) {
+						if (!(o instanceof JsonObject)) continue;
+						JsonObject j = (JsonObject) o;
+						rows.add(new JsonObject()
+								.put("structureId", j.getString("structureId"))
+								.put("externalId", j.getString("structureId") + "-SCOLARITE")
+								.put("users", j.getJsonArray("users")));
+					}
+					writeScolariteGroups(rows, structures, handler);
+				} else {
+					handler.handle(null);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Writes the SCOLARITE functions and groups with UNWIND statements, in transactions of at most
+	 * scolarite-batch-size users, then removes the function from the users who lost it.
+	 */
+	private void writeScolariteGroups(List<JsonObject> rows, final JsonArray structures, final Handler<Void> handler) {
+		final List<List<JsonObject>> chunks = new ArrayList<>();
+		List<JsonObject> chunk = new ArrayList<>();
+		int chunkUsers = 0;
+		for (JsonObject row : rows) {
+			final int users = row.getJsonArray("users", new JsonArray()).size();
+			if (!chunk.isEmpty() && chunkUsers + users > scolariteBatchSize) {
+				chunks.add(chunk);
+				chunk = new ArrayList<>();
+				chunkUsers = 0;
+			}
+			chunk.add(row);
+			chunkUsers += users;
+		}
+		if (!chunk.isEmpty()) {
+			chunks.add(chunk);
+		}
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		AsyncWindow.forEach(chunks.iterator(), 1, new AsyncWindow.Task<List<JsonObject>>() {
+			@Override
+			public void run(List<JsonObject> chunk, final Handler<Void> done) {
+				syncMetrics.neo4jCall();
+				neo4j.executeTransaction(scolariteStatements(chunk), null, true, new Handler<Message<JsonObject>>() {
 					@Override
 					public void handle(Message<JsonObject> message) {
-						JsonArray res = message.body().getJsonArray("result");
-						if ("ok".equals(message.body().getString("status")) && res != null) {
-							StatementsBuilder statements = new StatementsBuilder();
-							for (Object o: res) {
-								if (!(o instanceof JsonObject)) continue;
-								JsonObject j = (JsonObject) o;
-								addFunction(statements, j.getString("structureId"), j.getJsonArray("users"));
-							}
-							removeFunctionForOldAdml(statements);
-							neo4j.executeTransaction(statements.build(), null, true, new Handler<Message<JsonObject>>() {
-								@Override
-								public void handle(Message<JsonObject> message) {
-									handler.handle(null);
-								}
-							});
-						} else {
-							handler.handle(null);
+						if (!"ok".equals(message.body().getString("status"))) {
+							log.error("Error setting SCOLARITE groups : " + message.body().getString("message"));
+							failed.set(true);
 						}
+						done.handle(null);
 					}
 				});
 			}
-
-			private void removeFunctionForOldAdml(StatementsBuilder statements) {
-				String query =
-						"MATCH (f:Function {externalId:'SCOLARITE'})<-[r:HAS_FUNCTION]-(u:User)" +
-						"-[r2:IN]->(fg:FunctionGroup), (f2:Function {externalId: 'ADMIN_LOCAL'}) " +
-						"WHERE fg.externalId =~ '.*-SCOLARITE$' " +
-						"AND LENGTH(FILTER(gId IN u.functions WHERE gId =~ '.*\\\\$(EDU|DIR)\\\\$.*')) = 0 " +
-						"AND NOT(u-[:HAS_FUNCTION]->f2) " +
-						"DELETE r, r2";
-				statements.add(query);
-			}
-
-			private void addFunction(StatementsBuilder statements, String structureId, JsonArray users) {
-				String query =
-						"MATCH (u:User), (f:Function {externalId:'SCOLARITE'}) " +
-						"WHERE u.id IN {users} " +
-						"MERGE u-[rf:HAS_FUNCTION]->f " +
-						"SET rf.scope = CASE WHEN {scope} IN coalesce(rf.scope, []) THEN " +
-						"rf.scope ELSE coalesce(rf.scope, []) + {scope} END";
-
-				JsonObject params = new JsonObject().put("users", users).put("scope", structureId);
-
-				statements.add(query, params);
-				String q2 =
-						"MATCH (n:Structure {id: {scopeId}}), (f:Function {externalId : 'SCOLARITE'}) " +
-						"WITH n, f " +
-						"MERGE (fg:Group:FunctionGroup { externalId : {externalId}}) " +
-						"ON CREATE SET fg.id = id(fg) + '-' + timestamp(), fg.name = n.name + '-' + f.name " +
-						"CREATE UNIQUE n<-[:DEPENDS]-fg";
-				String qu =
-						"MATCH (u:User), (fg:FunctionGroup { externalId : {externalId}}) " +
-						"WHERE u.id IN {users} " +
-						"CREATE UNIQUE fg<-[:IN]-u ";
-				String extId = structureId + "-SCOLARITE" ;
-				JsonObject p2 = new JsonObject()
-						.put("scopeId", structureId)
-						.put("functionCode", "SCOLARITE")
-						.put("externalId", extId);
-				statements.add(q2, p2);
-				JsonObject pu = new JsonObject()
-						.put("users", users)
-						.put("externalId", extId);
-				statements.add(qu, pu);
+		}, new Handler<Void>() {
+			@Override
+			public void handle(Void v) {
+				StatementsBuilder statements = new StatementsBuilder();
+				removeFunctionForOldAdml(statements, structures);
+				syncMetrics.neo4jCall();
+				neo4j.executeTransaction(statements.build(), null, true, new Handler<Message<JsonObject>>() {
+					@Override
+					public void handle(Message<JsonObject> message) {
+						if ("ok".equals(message.body().getString("status")) && !failed.get() && structures == null) {
+							scolariteFullSyncDone = true;
+						}
+						handler.handle(null);
+					}
+				});
 			}
 		});
 	}
 
+	/**
+	 * Groups the SCOLARITE rows by user. The UNION of the SCOLARITE query may return the same structure
+	 * twice for a user, each structure is listed once in the scopes of the user.
+	 */
+	static JsonArray scolariteScopes(List<JsonObject> rows) {
+		final Map<String, Set<String>> scopesByUser = new LinkedHashMap<>();
+		for (JsonObject row : rows) {
+			for (Object u : row.getJsonArray("users", new JsonArray())) {
+				if (!(u instanceof String)) continue;
+				Set<String> scopes = scopesByUser.get(u);
+				if (scopes == null) {
+					scopes = new LinkedHashSet<>();
+					scopesByUser.put((String) u, scopes);
+				}
+				scopes.add(row.getString("structureId"));
+			}
+		}
+		final JsonArray users = new JsonArray();
+		for (Map.Entry<String, Set<String>> e : scopesByUser.entrySet()) {
+			users.add(new JsonObject().put("userId", e.getKey())
+					.put("scopes", new JsonArray(new ArrayList<Object>(e.getValue()))));
+		}
+		return users;
+	}
+
+	private JsonArray scolariteStatements(List<JsonObject> rows) {
+		final JsonArray users = scolariteScopes(rows);
+		final JsonArray r = new JsonArray(new ArrayList<Object>(rows));
+		String query =
+				"UNWIND {users} AS row " +
+				"MATCH (u:User {id: row.userId}), (f:Function {externalId:'SCOLARITE'}) " +
+				"MERGE u-[rf:HAS_FUNCTION]->f " +
+				"SET rf.scope = coalesce(rf.scope, []) + " +
+				"FILTER(s IN row.scopes WHERE NOT(s IN coalesce(rf.scope, []))) ";
+		String q2 =
+				"UNWIND {rows} AS row " +
+				"MATCH (n:Structure {id: row.structureId}), (f:Function {externalId : 'SCOLARITE'}) " +
+				"WITH row, n, f " +
+				"MERGE (fg:Group:FunctionGroup { externalId : row.externalId}) " +
+				"ON CREATE SET fg.id = id(fg) + '-' + timestamp(), fg.name = n.name + '-' + f.name " +
+				"CREATE UNIQUE n<-[:DEPENDS]-fg";
+		String qu =
+				"UNWIND {rows} AS row " +
+				"MATCH (fg:FunctionGroup { externalId : row.externalId}), (u:User) " +
+				"WHERE u.id IN row.users " +
+				"CREATE UNIQUE fg<-[:IN]-u ";
+		return new StatementsBuilder()
+				.add(query, new JsonObject().put("users", users))
+				.add(q2, new JsonObject().put("rows", r))
+				.add(qu, new JsonObject().put("rows", r))
+				.build();
+	}
+
+	private void removeFunctionForOldAdml(StatementsBuilder statements, JsonArray structures) {
+		if (structures == null) {
+			String query =
+					"MATCH (f:Function {externalId:'SCOLARITE'})<-[r:HAS_FUNCTION]-(u:User)" +
+					"-[r2:IN]->(fg:FunctionGroup), (f2:Function {externalId: 'ADMIN_LOCAL'}) " +
+					"WHERE fg.externalId ENDS WITH '-SCOLARITE' " +
+					"AND NONE(gId IN u.functions WHERE gId CONTAINS '$EDU$' OR gId CONTAINS '$DIR$') " +
+					"AND NOT(u-[:HAS_FUNCTION]->f2) " +
+					"DELETE r, r2";
+			statements.add(query);
+		} else {
+			String query =
+					"MATCH (s:Structure)<-[:DEPENDS]-(fg:FunctionGroup)<-[r2:IN]-(u:User)" +
+					"-[r:HAS_FUNCTION]->(f:Function {externalId:'SCOLARITE'}), " +
+					"(f2:Function {externalId: 'ADMIN_LOCAL'}) " +
+					"WHERE s.id IN {structures} AND fg.externalId = s.id + '-SCOLARITE' " +
+					"AND NONE(gId IN u.functions WHERE gId CONTAINS '$EDU$' OR gId CONTAINS '$DIR$') " +
+					"AND NOT(u-[:HAS_FUNCTION]->f2) " +
+					"DELETE r, r2";
+			statements.add(query, new JsonObject().put("structures", structures));
+		}
+	}
+
 	private void exported(final Message<JsonObject> message) {
 		log.info("exported");
 		if ("ELIOT".equals(message.body().getString("exportFormat"))) {
@@ -494,10 +743,10 @@ public class EliotController extends BaseController {
 						c.setTime(new Date());
 						int dayOfWeek = c.get(Calendar.DAY_OF_WEEK);
 						if (Calendar.SUNDAY == dayOfWeek) {
-							configureApplications(message);
+							sync(message, null, System.currentTimeMillis());
 						}
 					} else {
-						configureApplications(message);
+						sync(message, null, System.currentTimeMillis());
 					}
 				}
 			});
@@ -506,345 +755,983 @@ public class EliotController extends BaseController {
 		}
 	}
 
-	private void configureApplications(final Message<JsonObject> message) {
-		log.info("configure apps");
-		getStructures(new Handler<JsonArray>() {
+	/**
+	 * Runs a sync. In cluster mode, the node holding a cluster wide lock fetches the entitlements and broadcasts
+	 * the snapshot. The lock is only waited for sync-lock-wait : the other nodes serve the broadcast snapshot and
+	 * check every sync-retry-delay, during sync-lock-timeout, that a sync completed since notBefore. If the node
+	 * holding the lock dies before, its lock is released and a checking node takes over.
+	 * Shard syncs are not retried, the next slice refreshes the next shard.
+	 * @param shard shard of the structures to refresh, null for all the structures.
+	 * @param notBefore completion time of a previous sync which makes this one useless.
+	 */
+	private void sync(final Message<JsonObject> message, final Integer shard, final long notBefore) {
+		sync(message, shard, notBefore, System.currentTimeMillis() + syncLockTimeout);
+	}
+
+	private void sync(final Message<JsonObject> message, final Integer shard, final long notBefore,
+			final long waitUntil) {
+		if (!clustered) {
+			configureApplications(message, shard, null);
+			return;
+		}
+		final String lastSync = shard != null ? LAST_SHARD_SYNC : LAST_SYNC;
+		vertx.sharedData().getLockWithTimeout(SYNC_LOCK, syncLockWait, new Handler<AsyncResult<Lock>>() {
+			@Override
+			public void handle(AsyncResult<Lock> ar) {
+				if (ar.failed()) {
+					if (shard == null) {
+						waitSync(message, notBefore, waitUntil);
+					}
+					return;
+				}
+				final Lock lock = ar.result();
+				vertx.sharedData().<String, Object>getClusterWideMap(SYNC_MAP,
+						new Handler<AsyncResult<AsyncMap<String, Object>>>() {
+					@Override
+					public void handle(AsyncResult<AsyncMap<String, Object>> ar) {
+						if (ar.failed()) {
+							log.error("Error getting Eliot sync map.", ar.cause());
+							lock.release();
+							return;
+						}
+						final AsyncMap<String, Object> syncMap = ar.result();
+						syncMap.get(lastSync, new Handler<AsyncResult<Object>>() {
+							@Override
+							public void handle(AsyncResult<Object> last) {
+								if (last.succeeded() && last.result() instanceof Long &&
+										(Long) last.result() >= notBefore) {
+									if (shard == null) {
+										log.info("Eliot sync skipped, already done by another node.");
+									}
+									lock.release();
+									return;
+								}
+								nextSyncEpoch(new Handler<AsyncResult<Long>>() {
+									@Override
+									public void handle(AsyncResult<Long> epoch) {
+										if (epoch.failed()) {
+											log.error("Error getting Eliot sync epoch.", epoch.cause());
+											lock.release();
+											return;
+										}
+										syncEpoch = epoch.result();
+										configureApplications(message, shard, new Handler<Boolean>() {
+											@Override
+											public void handle(Boolean success) {
+												if (!success) {
+													lock.release();
+													return;
+												}
+												syncMap.put(lastSync, System.currentTimeMillis(),
+														new Handler<AsyncResult<Void>>() {
+													@Override
+													public void handle(AsyncResult<Void> put) {
+														lock.release();
+													}
+												});
+											}
+										});
+									}
+								});
+							}
+						});
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Increments the cluster wide epoch of the sync lock, which orders the snapshots of successive lock holders.
+	 */
+	private void nextSyncEpoch(final Handler<AsyncResult<Long>> handler) {
+		vertx.sharedData().getCounter(SYNC_EPOCH, new Handler<AsyncResult<Counter>>() {
+			@Override
+			public void handle(AsyncResult<Counter> counter) {
+				if (counter.failed()) {
+					handler.handle(Future.<Long>failedFuture(counter.cause()));
+				} else {
+					counter.result().incrementAndGet(handler);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Another node holds the sync lock : checks later that it completed a sync, or else tries to take over.
+	 */
+	private void waitSync(final Message<JsonObject> message, final long notBefore, final long waitUntil) {
+		if (System.currentTimeMillis() + syncRetryDelay > waitUntil) {
+			log.warn("Eliot sync skipped, no sync completed by the node holding the sync lock.");
+			return;
+		}
+		vertx.setTimer(syncRetryDelay, new Handler<Long>() {
+			@Override
+			public void handle(Long timerId) {
+				vertx.sharedData().<String, Object>getClusterWideMap(SYNC_MAP,
+						new Handler<AsyncResult<AsyncMap<String, Object>>>() {
+					@Override
+					public void handle(AsyncResult<AsyncMap<String, Object>> ar) {
+						if (ar.failed()) {
+							log.error("Error getting Eliot sync map.", ar.cause());
+							sync(message, null, notBefore, waitUntil);
+							return;
+						}
+						ar.result().get(LAST_SYNC, new Handler<AsyncResult<Object>>() {
+							@Override
+							public void handle(AsyncResult<Object> last) {
+								if (last.succeeded() && last.result() instanceof Long &&
+										(Long) last.result() >= notBefore) {
+									log.info("Eliot sync skipped, already done by another node.");
+								} else {
+									sync(message, null, notBefore, waitUntil);
+								}
+							}
+						});
+					}
+				});
+			}
+		});
+	}
+
+	private void configureApplications(final Message<JsonObject> message, final Integer shard,
+			final Handler<Boolean> handler) {
+		if (shard != null && runningSyncs > 0) {
+			log.info("Eliot sync of shard " + shard + " skipped, a sync is running.");
+			if (handler != null) {
+				handler.handle(false);
+			}
+			return;
+		}
+		runningSyncs++;
+		final SyncMetrics.Run run = syncMetrics.start(message != null ? "exported" :
+				shard != null ? "shard-" + shard : "scheduled");
+		final long deadline = System.currentTimeMillis() + syncBudget;
+		final AtomicBoolean success = new AtomicBoolean(false);
+		final Handler<Void> end = new Handler<Void>() {
+			@Override
+			public void handle(Void v) {
+				runningSyncs--;
+				run.end();
+				log.info(run.summary());
+				if (handler != null) {
+					handler.handle(success.get());
+				}
+			}
+		};
+		final SyncMetrics.Phase structuresPhase = run.phase("structures");
+		final Handler<JsonArray> structuresHandler = new Handler<JsonArray>() {
 			@Override
 			public void handle(final JsonArray structures) {
+				structuresPhase.end();
 				if (structures != null) {
-					getApplications(structures, new Handler<Map<String, Applications>>() {
+					success.set(true);
+					run.setStructures(structures.size());
+					final SyncMetrics.Phase saasPhase = run.phase("saas");
+					getApplications(run, structures, deadline, new Handler<Map<String, Applications>>() {
 
 						@Override
-						public void handle(Map<String, Applications> event) {
-							allowedApplication.clear();
-							allowedApplication.putAll(event);
+						public void handle(final Map<String, Applications> fetched) {
+							saasPhase.end();
+							final Map<String, Applications> event = shard != null ?
+									mergeShard(snapshot.getApplications(), shard, syncShards, fetched) : fetched;
+							if (shard == null || !sameEntitlements(snapshot.getApplications(), event)) {
+								final SyncMetrics.Phase publishPhase = run.phase("publish");
+								publish(event);
+								publishPhase.end();
+							} else {
+								log.info("Eliot entitlements of shard " + shard + " unchanged, snapshot not published.");
+							}
 							final Set<String> apps = new HashSet<>();
-							for (Applications applications : allowedApplication.values()) {
+							final JsonArray activeRne = new JsonArray();
+							for (Applications applications : event.values()) {
+								activeRne.add(applications.getRne());
 								for (fr.wseduc.eliot.pojo.Application app : applications.getApplications()) {
 									apps.add(app.getCode());
 								}
 							}
-							if (message != null) {
-								sendApplications(apps, new Handler<Boolean>() {
-									@Override
-									public void handle(Boolean success) {
-										if (success) {
-											sendRoles(apps, new Handler<Boolean>() {
-												@Override
-												public void handle(Boolean success) {
-													if (success) {
-														linkRolesToGroups(new Handler<Boolean>() {
-															@Override
-															public void handle(Boolean event) {
-
-															}
-														});
-													}
-												}
-											});
-										}
+							if (System.currentTimeMillis() > deadline) {
+								log.warn("Eliot sync budget exceeded, active UAI not persisted.");
+								end.handle(null);
+								return;
+							}
+							persistActiveRne(run, activeRne, new Handler<Void>() {
+								@Override
+								public void handle(Void v) {
+									if (message != null && System.currentTimeMillis() > deadline) {
+										log.warn("Eliot sync budget exceeded, roles not reconciled.");
+										end.handle(null);
+									} else if (message != null) {
+										reconcile(run, event, apps,
+												message.body().getJsonArray("structures"), deadline, end);
+									} else {
+										end.handle(null);
 									}
-								});
+								}
+							});
+						}
+					});
+				} else {
+					end.handle(null);
+					if (message != null) {
+						sendError(message, "get.structures.error");
+					}
+				}
+			}
+		};
+		if (shard != null) {
+			getShardStructures(run, shard, structuresHandler);
+		} else {
+			getStructures(run, structuresHandler);
+		}
+	}
+
+	/**
+	 * @return the current applications, where the structures of the shard are replaced by the fetched ones.
+	 * The structures of the shard which were not fetched, deleted from the directory or closed to Eliot,
+	 * are removed.
+	 */
+	static Map<String, Applications> mergeShard(Map<String, Applications> current, int shard, int shards,
+			Map<String, Applications> fetched) {
+		final Map<String, Applications> merged = new HashMap<>();
+		for (Map.Entry<String, Applications> entry : current.entrySet()) {
+			if (shardOf(entry.getKey(), shards) != shard) {
+				merged.put(entry.getKey(), entry.getValue());
+			}
+		}
+		merged.putAll(fetched);
+		return merged;
+	}
+
+	/**
+	 * @return true if both maps hold the same structures with the same entitlements fingerprints.
+	 */
+	static boolean sameEntitlements(Map<String, Applications> current, Map<String, Applications> next) {
+		if (current.size() != next.size()) {
+			return false;
+		}
+		for (Map.Entry<String, Applications> entry : next.entrySet()) {
+			final Applications applications = current.get(entry.getKey());
+			if (applications == null || !applications.fingerprint().equals(entry.getValue().fingerprint())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void publish(final Map<String, Applications> appsByStructure) {
+		final EntitlementSnapshot published = snapshot.next(syncEpoch, appsByStructure);
+		setSnapshot(published);
+		storeSnapshot(published);
+		log.info("Eliot entitlements snapshot " + published.getEpoch() + "." + published.getVersion() +
+				" published with " + published.getIndex().size() + " structure(s).");
+		if (!clustered) return;
+		eb.publish(SNAPSHOT_ADDRESS, published.encode(etags).put("node", nodeId));
+		vertx.sharedData().<String, Object>getClusterWideMap(SYNC_MAP,
+				new Handler<AsyncResult<AsyncMap<String, Object>>>() {
+			@Override
+			public void handle(AsyncResult<AsyncMap<String, Object>> ar) {
+				if (ar.succeeded()) {
+					ar.result().put(SNAPSHOT_NODE, nodeId, new Handler<AsyncResult<Void>>() {
+						@Override
+						public void handle(AsyncResult<Void> put) {
+							if (put.failed()) {
+								log.error("Error updating Eliot sync map.", put.cause());
 							}
 						}
 					});
-				} else if (message != null) {
-					sendError(message, "get.structures.error");
+				} else {
+					log.error("Error getting Eliot sync map.", ar.cause());
 				}
 			}
 		});
 	}
 
-	private void sendApplications(Set<String> apps, final Handler<Boolean> handler) {
-		int i = apps.size();
-		if (i < 1) {
-			log.info("Empty applications.");
+	private void setSnapshot(EntitlementSnapshot published) {
+		redirectTemplates.rebuild(published.getIndex());
+		snapshot = published;
+		launchCache.clear();
+	}
+
+	/**
+	 * Serves the snapshot stored by the previous run of the node until the first sync publishes a new one.
+	 * It is loaded before a snapshot is pulled from the cluster, which replaces it if it is more recent.
+	 */
+	private void loadSnapshot(final Handler<Void> handler) {
+		if (snapshotStore == null) {
+			handler.handle(null);
 			return;
 		}
-		final Handler[] handlers = new Handler[i + 1];
-		handlers[i] = new Handler<Void>() {
+		final long start = System.currentTimeMillis();
+		vertx.executeBlocking(new Handler<Future<SnapshotStore.Stored>>() {
 			@Override
-			public void handle(Void v) {
-				handler.handle(true);
+			public void handle(Future<SnapshotStore.Stored> future) {
+				try {
+					future.complete(snapshotStore.read());
+				} catch (IOException e) {
+					future.fail(e);
+				}
+			}
+		}, true, new Handler<AsyncResult<SnapshotStore.Stored>>() {
+			@Override
+			public void handle(AsyncResult<SnapshotStore.Stored> ar) {
+				if (ar.failed()) {
+					log.error("Error loading Eliot entitlements snapshot.", ar.cause());
+				} else if (ar.result() != null && snapshot.getVersion() == 0) {
+					etags.putAll(ar.result().getEtags());
+					setSnapshot(ar.result().getSnapshot());
+					log.info("Eliot entitlements snapshot " + snapshot.getVersion() + " loaded from " +
+							snapshotStore.getPath() + " with " + snapshot.getIndex().size() + " structure(s) in " +
+							(System.currentTimeMillis() - start) + " ms.");
+				}
+				handler.handle(null);
+			}
+		});
+	}
+
+	private void storeSnapshot(final EntitlementSnapshot published) {
+		if (snapshotStore == null) return;
+		final Map<String, String> storedEtags = new HashMap<>(etags);
+		vertx.executeBlocking(new Handler<Future<Void>>() {
+			@Override
+			public void handle(Future<Void> future) {
+				try {
+					snapshotStore.write(published, storedEtags);
+					future.complete();
+				} catch (IOException e) {
+					future.fail(e);
+				}
+			}
+		}, true, new Handler<AsyncResult<Void>>() {
+			@Override
+			public void handle(AsyncResult<Void> ar) {
+				if (ar.failed()) {
+					log.error("Error storing Eliot entitlements snapshot.", ar.cause());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Serves a snapshot published by another node, if it is more recent than the local one. Snapshots are
+	 * ordered by the epoch of the sync lock holder which published them, then by version : their build times
+	 * come from the clocks of different nodes.
+	 */
+	private void receiveSnapshot(JsonObject body, String node) {
+		final EntitlementSnapshot received = EntitlementSnapshot.decode(body);
+		if (!received.isNewerThan(snapshot)) return;
+		for (Object o : body.getJsonArray("structures", new JsonArray())) {
+			if (!(o instanceof JsonObject)) continue;
+			final JsonObject s = (JsonObject) o;
+			if (s.getString("rne") != null && s.getString("etag") != null) {
+				etags.put(s.getString("rne"), s.getString("etag"));
+			}
+		}
+		setSnapshot(received);
+		storeSnapshot(received);
+		log.info("Eliot entitlements snapshot " + received.getEpoch() + "." + received.getVersion() +
+				" received from node " + node + " with " + received.getIndex().size() + " structure(s).");
+	}
+
+	/**
+	 * Asks the node which published the last snapshot for it, so that a starting node does not wait for a sync.
+	 */
+	private void pullSnapshot(final Handler<Void> handler) {
+		if (!clustered) {
+			handler.handle(null);
+			return;
+		}
+		vertx.sharedData().<String, Object>getClusterWideMap(SYNC_MAP,
+				new Handler<AsyncResult<AsyncMap<String, Object>>>() {
+			@Override
+			public void handle(AsyncResult<AsyncMap<String, Object>> ar) {
+				if (ar.failed()) {
+					log.error("Error getting Eliot sync map.", ar.cause());
+					handler.handle(null);
+					return;
+				}
+				ar.result().get(SNAPSHOT_NODE, new Handler<AsyncResult<Object>>() {
+					@Override
+					public void handle(AsyncResult<Object> node) {
+						if (node.failed() || !(node.result() instanceof String) || nodeId.equals(node.result())) {
+							handler.handle(null);
+							return;
+						}
+						final String publisher = (String) node.result();
+						eb.send(SNAPSHOT_ADDRESS + "." + publisher, new JsonObject(),
+								new Handler<AsyncResult<Message<JsonObject>>>() {
+							@Override
+							public void handle(AsyncResult<Message<JsonObject>> reply) {
+								if (reply.succeeded()) {
+									receiveSnapshot(reply.result().body(), publisher);
+								} else {
+									log.warn("Eliot entitlements snapshot not received from node " + publisher +
+											" : " + reply.cause().getMessage());
+								}
+								handler.handle(null);
+							}
+						});
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Links the Eliot roles to the groups of the structures touched by the export, whose groups may have been
+	 * created by the import or by the SCOLARITE write, and of the structures whose entitlements changed.
+	 * @param touched structures listed by the exported event, null if the export is not scoped.
+	 */
+	private void reconcile(final SyncMetrics.Run run, final Map<String, Applications> appsByStructure,
+			final Set<String> apps, JsonArray touched, final long deadline, final Handler<Void> handler) {
+		final Set<Object> touchedIds = touched != null ? new HashSet<Object>(touched.getList()) : null;
+		final Map<String, Applications> changed = new HashMap<>();
+		for (Map.Entry<String, Applications> entry : appsByStructure.entrySet()) {
+			if (!differentialSync || touchedIds == null || touchedIds.contains(entry.getKey()) ||
+					!entry.getValue().fingerprint().equals(reconciledFingerprints.get(entry.getKey()))) {
+				changed.put(entry.getKey(), entry.getValue());
+			}
+		}
+		reconciledFingerprints.keySet().retainAll(appsByStructure.keySet());
+		run.setStructuresChanged(changed.size());
+		if (changed.isEmpty()) {
+			log.info("Eliot entitlements unchanged, skip roles reconciliation.");
+			handler.handle(null);
+			return;
+		}
+		final SyncMetrics.Phase registryPhase = run.phase("registry");
+		final Handler<Boolean> linkRoles = new Handler<Boolean>() {
+			@Override
+			public void handle(Boolean success) {
+				registryPhase.end();
+				if (success) {
+					final SyncMetrics.Phase linkRolesPhase = run.phase("link-roles");
+					linkRolesToGroups(run, changed, deadline, new Handler<Set<String>>() {
+						@Override
+						public void handle(Set<String> reconciled) {
+							linkRolesPhase.end();
+							for (String structureId : reconciled) {
+								reconciledFingerprints.put(structureId, changed.get(structureId).fingerprint());
+							}
+							if (reconciled.size() < changed.size()) {
+								log.error((changed.size() - reconciled.size()) +
+										" structure(s) failed Eliot roles reconciliation.");
+							}
+							handler.handle(null);
+						}
+					});
+				} else {
+					handler.handle(null);
+				}
 			}
 		};
-		for (final String app : apps) {
-			final int j = --i;
-			handlers[j] = new Handler<Void>() {
-				@Override
-				public void handle(Void v) {
-					JsonObject application = new JsonObject()
-							.put("name", app)
-							.put("displayName", app.toLowerCase())
-							.put("address", "/eliot/" + app.toLowerCase());
-					JsonObject message = new JsonObject()
-							.put("application", application)
-							.put("action", "create-external-application");
-					eb.send("wse.app.registry.bus", message, handlerToAsyncHandler(new Handler<Message<JsonObject>>() {
+		if (differentialSync && registeredApplications.equals(apps) && roles.keySet().containsAll(apps)) {
+			linkRoles.handle(true);
+			return;
+		}
+		sendApplications(run, apps, new Handler<Boolean>() {
+			@Override
+			public void handle(Boolean success) {
+				if (success) {
+					sendRoles(run, apps, new Handler<Boolean>() {
 						@Override
-						public void handle(Message<JsonObject> event) {
-							if (!"ok".equals(event.body().getString("status"))) {
-								log.error(event.body().getString("message"));
-								handler.handle(false);
-							} else {
-								handlers[j + 1].handle(null);
+						public void handle(Boolean success) {
+							if (success) {
+								registeredApplications.clear();
+								registeredApplications.addAll(apps);
 							}
+							linkRoles.handle(success);
 						}
-					}));
+					});
+				} else {
+					linkRoles.handle(false);
 				}
-			};
+			}
+		});
+	}
+
+	private void sendApplications(final SyncMetrics.Run run, Set<String> apps, final Handler<Boolean> handler) {
+		if (apps.size() < 1) {
+			log.info("Empty applications.");
+			handler.handle(false);
+			return;
 		}
-		handlers[0].handle(null);
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		AsyncWindow.forEach(apps.iterator(), registryWindow, new AsyncWindow.Task<String>() {
+			@Override
+			public void run(String app, final Handler<Void> done) {
+				if (failed.get()) {
+					done.handle(null);
+					return;
+				}
+				JsonObject application = new JsonObject()
+						.put("name", app)
+						.put("displayName", app.toLowerCase())
+						.put("address", "/eliot/" + app.toLowerCase());
+				JsonObject message = new JsonObject()
+						.put("application", application)
+						.put("action", "create-external-application");
+				run.busCall();
+				eb.send(APP_REGISTRY_ADDRESS, message, handlerToAsyncHandler(new Handler<Message<JsonObject>>() {
+					@Override
+					public void handle(Message<JsonObject> event) {
+						if (!"ok".equals(event.body().getString("status"))) {
+							log.error(event.body().getString("message"));
+							failed.set(true);
+						}
+						done.handle(null);
+					}
+				}));
+			}
+		}, new Handler<Void>() {
+			@Override
+			public void handle(Void v) {
+				handler.handle(!failed.get());
+			}
+		});
 	}
 
-	private void sendRoles(final Set<String> apps, final Handler<Boolean> handler) {
-		int i = apps.size();
-		if (i < 1) {
+	private void sendRoles(final SyncMetrics.Run run, final Set<String> apps, final Handler<Boolean> handler) {
+		if (apps.size() < 1) {
 			log.info("Empty roles.");
+			handler.handle(false);
 			return;
 		}
-		final Handler[] handlers = new Handler[i + 1];
-		handlers[i] = new Handler<Void>() {
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		final Map<String, String> roleIds = new HashMap<>();
+		AsyncWindow.forEach(apps.iterator(), registryWindow, new AsyncWindow.Task<String>() {
 			@Override
-			public void handle(Void v) {
-				JsonObject listRolesMessage = new JsonObject()
-						.put("action", "list-roles");
-				eb.send("wse.app.registry.bus", listRolesMessage, handlerToAsyncHandler(new Handler<Message<JsonObject>>() {
+			public void run(final String application, final Handler<Void> done) {
+				if (failed.get()) {
+					done.handle(null);
+					return;
+				}
+				JsonObject role = new JsonObject()
+						.put("name", application);
+				JsonArray actions = new JsonArray()
+						.add(application + "|address")
+						.add(ROLE_ACTION_PREFIX + "|" + application.toLowerCase());
+				final JsonObject message = new JsonObject()
+						.put("action", "create-role")
+						.put("role", role)
+						.put("actions", actions);
+				run.busCall();
+				eb.send(APP_REGISTRY_ADDRESS, message, handlerToAsyncHandler(new Handler<Message<JsonObject>>() {
 					@Override
 					public void handle(Message<JsonObject> event) {
-						JsonArray result = event.body().getJsonArray("result");
-						if (!"ok".equals(event.body().getString("status")) || result == null) {
+						if (!"ok".equals(event.body().getString("status"))) {
 							log.error(event.body().getString("message"));
-							handler.handle(false);
-						} else {
-							for (Object o : result) {
-								if (!(o instanceof JsonObject)) continue;
-								JsonObject j = (JsonObject) o;
-								if (apps.contains(j.getString("name"))) {
-									roles.put(j.getString("name"), j.getString("id"));
-								}
-							}
-							handler.handle(true);
+							failed.set(true);
+						} else if (event.body().getValue("result") instanceof JsonObject &&
+								event.body().getJsonObject("result").getString("id") != null) {
+							roleIds.put(application, event.body().getJsonObject("result").getString("id"));
 						}
+						done.handle(null);
 					}
 				}));
 			}
-		};
-		for (final String application: apps) {
-			final int j = --i;
-			handlers[j] = new Handler<Void>() {
-				@Override
-				public void handle(Void v) {
-					JsonObject role = new JsonObject()
-							.put("name", application);
-					JsonArray actions = new JsonArray()
-							.add(application + "|address")
-							.add(this.getClass().getName() + "|" + application.toLowerCase());
-					final JsonObject message = new JsonObject()
-							.put("action", "create-role")
-							.put("role", role)
-							.put("actions", actions);
-					eb.send("wse.app.registry.bus", message, handlerToAsyncHandler(new Handler<Message<JsonObject>>() {
-						@Override
-						public void handle(Message<JsonObject> event) {
-							if (!"ok".equals(event.body().getString("status"))) {
-								log.error(event.body().getString("message"));
-								handler.handle(false);
-							} else {
-								handlers[j + 1].handle(null);
-							}
+		}, new Handler<Void>() {
+			@Override
+			public void handle(Void v) {
+				if (failed.get()) {
+					handler.handle(false);
+				} else if (roleIds.keySet().containsAll(apps)) {
+					roles.putAll(roleIds);
+					handler.handle(true);
+				} else {
+					listRoles(run, apps, handler);
+				}
+			}
+		});
+	}
+
+	private void listRoles(final SyncMetrics.Run run, final Set<String> apps, final Handler<Boolean> handler) {
+		JsonObject listRolesMessage = new JsonObject()
+				.put("action", "list-roles");
+		run.busCall();
+		eb.send(APP_REGISTRY_ADDRESS, listRolesMessage, handlerToAsyncHandler(new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				JsonArray result = event.body().getJsonArray("result");
+				if (!"ok".equals(event.body().getString("status")) || result == null) {
+					log.error(event.body().getString("message"));
+					handler.handle(false);
+				} else {
+					for (Object o : result) {
+						if (!(o instanceof JsonObject)) continue;
+						JsonObject j = (JsonObject) o;
+						if (apps.contains(j.getString("name"))) {
+							roles.put(j.getString("name"), j.getString("id"));
 						}
-					}));
+					}
+					handler.handle(true);
 				}
-			};
-		}
-		handlers[0].handle(null);
+			}
+		}));
 	}
 
-	private void linkRolesToGroups(final Handler<Boolean> handler) {
-		int i = allowedApplication.size();
-		if (i < 1) {
+	/**
+	 * Links the Eliot roles to the groups of each structure, with at most link-roles-parallelism
+	 * structures in progress. A failure stops only the structure it happens in.
+	 * The handler receives the ids of the structures fully reconciled.
+	 *
+	 * @param deadline end of the sync budget, the structures which are not started by then are not reconciled.
+	 */
+	private void linkRolesToGroups(final SyncMetrics.Run run, final Map<String, Applications> appsByStructure,
+			final long deadline, final Handler<Set<String>> handler) {
+		if (appsByStructure.size() < 1) {
 			log.info("Empty allowed application.");
+			handler.handle(Collections.<String>emptySet());
 			return;
 		}
-		final Handler[] handlers = new Handler[i + 1];
-		handlers[i] = new Handler<Void>() {
+		final Set<String> reconciled = new HashSet<>();
+		final Set<String> managedRoles = new HashSet<>(roles.values());
+		final AtomicInteger changedGroups = new AtomicInteger();
+		final AtomicInteger skippedGroups = new AtomicInteger();
+		final AtomicInteger outOfBudget = new AtomicInteger();
+		AsyncWindow.forEach(appsByStructure.entrySet().iterator(), linkRolesParallelism,
+				new AsyncWindow.Task<Map.Entry<String, Applications>>() {
+			@Override
+			public void run(final Map.Entry<String, Applications> entry, final Handler<Void> done) {
+				if (System.currentTimeMillis() > deadline) {
+					outOfBudget.incrementAndGet();
+					done.handle(null);
+					return;
+				}
+				JsonObject message = new JsonObject()
+						.put("action", "list-groups-with-roles")
+						.put("structureId", entry.getKey());
+				run.busCall();
+				eb.send(APP_REGISTRY_ADDRESS, message, handlerToAsyncHandler(new Handler<Message<JsonObject>>() {
+					@Override
+					public void handle(Message<JsonObject> event) {
+						if (!"ok".equals(event.body().getString("status"))) {
+							log.error("Error listing groups of structure " + entry.getKey() + " : " +
+									event.body().getString("message"));
+							done.handle(null);
+						} else {
+							linkRolesToGroup(run, event, entry, managedRoles, changedGroups, skippedGroups,
+									new Handler<Boolean>() {
+								@Override
+								public void handle(Boolean success) {
+									if (success) {
+										reconciled.add(entry.getKey());
+									} else {
+										log.error("Error linking Eliot roles to groups of structure " + entry.getKey());
+									}
+									done.handle(null);
+								}
+							});
+						}
+					}
+				}));
+			}
+		}, new Handler<Void>() {
 			@Override
 			public void handle(Void v) {
-				handler.handle(true);
+				log.info("Eliot roles reconciliation : " + reconciled.size() + " structure(s), " +
+						changedGroups.get() + " group(s) updated, " + skippedGroups.get() + " group(s) unchanged, " +
+						outOfBudget.get() + " structure(s) out of the sync budget.");
+				handler.handle(reconciled);
 			}
-		};
-		for (final Map.Entry<String, Applications> entry : allowedApplication.entrySet()) {
-			final int j = --i;
-			handlers[j] = new Handler<Void>() {
-				@Override
-				public void handle(Void v) {
-					JsonObject message = new JsonObject()
-							.put("action", "list-groups-with-roles")
-							.put("structureId", entry.getKey());
-					eb.send("wse.app.registry.bus", message, handlerToAsyncHandler(new Handler<Message<JsonObject>>() {
-						@Override
-						public void handle(Message<JsonObject> event) {
-							if (!"ok".equals(event.body().getString("status"))) {
-								log.error(event.body().getString("message"));
-								handler.handle(false);
-							} else {
-								linkRolesToGroup(event, entry, new Handler<Boolean>() {
-									@Override
-									public void handle(Boolean event) {
-										if (event) {
-											handlers[j + 1].handle(null);
-										} else {
-											handler.handle(event);
-										}
-									}
-								});
-							}
+		});
+	}
+
+	/**
+	 * Replaces the Eliot roles of each group of the structure with the roles of its entitled applications,
+	 * keeping the roles that are not managed by Eliot. Groups already holding exactly these roles are skipped.
+	 */
+	private void linkRolesToGroup(final SyncMetrics.Run run, Message<JsonObject> event,
+			final Map.Entry<String, Applications> entry,
+			final Set<String> managedRoles, final AtomicInteger changedGroups, final AtomicInteger skippedGroups,
+			final Handler<Boolean> handler) {
+		final JsonArray result = event.body().getJsonArray("result");
+		final List<JsonObject> groups = new ArrayList<>();
+		if (result != null) {
+			for (Object o : result) {
+				if (o instanceof JsonObject) {
+					groups.add((JsonObject) o);
+				}
+			}
+		}
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		AsyncWindow.forEach(groups.iterator(), 1, new AsyncWindow.Task<JsonObject>() {
+			@Override
+			public void run(JsonObject j, final Handler<Void> done) {
+				if (failed.get()) {
+					done.handle(null);
+					return;
+				}
+				final Set<String> current = groupRoles(j);
+				final Set<String> desired = desiredRoles(current, j.getString("name", ""), entry.getValue(),
+						managedRoles, roles);
+				if (desired.equals(current)) {
+					skippedGroups.incrementAndGet();
+					done.handle(null);
+					return;
+				}
+				changedGroups.incrementAndGet();
+				JsonObject message = new JsonObject()
+						.put("action", "link-role-group")
+						.put("groupId", j.getString("id"))
+						.put("roleIds", new JsonArray(new ArrayList<>(desired)));
+				log.debug(message.encodePrettily());
+				run.busCall();
+				eb.send(APP_REGISTRY_ADDRESS, message, handlerToAsyncHandler(new Handler<Message<JsonObject>>() {
+					@Override
+					public void handle(Message<JsonObject> event) {
+						if (!"ok".equals(event.body().getString("status"))) {
+							log.error(event.body().getString("message"));
+							failed.set(true);
 						}
-					}));
+						done.handle(null);
+					}
+				}));
+			}
+		}, new Handler<Void>() {
+			@Override
+			public void handle(Void v) {
+				handler.handle(!failed.get());
+			}
+		});
+	}
+
+	static Set<String> groupRoles(JsonObject group) {
+		final Set<String> current = new HashSet<>();
+		final JsonArray groupRoles = group.getJsonArray("roles");
+		if (groupRoles != null) {
+			for (Object r : groupRoles) {
+				if (r instanceof String) {
+					current.add((String) r);
+				}
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * @return the roles of the group once reconciled : its roles not managed by Eliot, plus the role of each
+	 * entitled application. The SCOLARITE role goes only to the SCOLARITE groups.
+	 */
+	static Set<String> desiredRoles(Set<String> current, String groupName, Applications applications,
+			Set<String> managedRoles, Map<String, String> roles) {
+		final Set<String> desired = new HashSet<>(current);
+		desired.removeAll(managedRoles);
+		for (fr.wseduc.eliot.pojo.Application app : applications.getApplications()) {
+			if (!Application.SCOLARITE.name().equals(app.getCode()) || groupName.contains("-SCOLARITE")) {
+				final String roleId = roles.get(app.getCode());
+				if (roleId != null) {
+					desired.add(roleId);
 				}
-			};
+			}
 		}
-		handlers[0].handle(null);
+		return desired;
 	}
 
-	private void linkRolesToGroup(Message<JsonObject> event,
-			final Map.Entry<String, Applications> entry, final Handler<Boolean> handler) {
-		JsonArray result = event.body().getJsonArray("result");
-		int k = result.size();
-		final Handler[] handlers = new Handler[k + 1];
-		handlers[k] = new Handler<Void>() {
+	/**
+	 * Fetches the applications of the structures within the sync budget. Structures which could not be
+	 * refreshed because of a transient failure of the SaaS keep their previous applications.
+	 */
+	private void getApplications(final SyncMetrics.Run run, JsonArray structures, final long deadline,
+			final Handler<Map<String, Applications>> handler) {
+		final Map<String, Applications> appsByStructure = new HashMap<>();
+		final Map<String, Applications> previousApps = snapshot.getApplications();
+		final List<JsonObject> structureList = new ArrayList<>();
+		for (Object o : structures) {
+			if (!(o instanceof JsonObject)) continue;
+			structureList.add((JsonObject) o);
+		}
+		AsyncWindow.forEach(structureList.iterator(), saasClient.getMaxInFlight(), new AsyncWindow.Task<JsonObject>() {
+			@Override
+			public void run(JsonObject s, final Handler<Void> done) {
+				final String structure = s.getString("id");
+				final String rne = s.getString("UAI");
+				final Applications previous = previousApps.get(structure);
+				final String etag = (previous != null && rne != null && rne.equals(previous.getRne())) ?
+						etags.get(rne) : null;
+				getApplications(run, structure, rne, etag, previous, deadline, new Handler<Applications>() {
+					@Override
+					public void handle(Applications applications) {
+						if (applications != null) {
+							appsByStructure.put(structure, applications);
+						}
+						done.handle(null);
+					}
+				});
+			}
+		}, new Handler<Void>() {
 			@Override
 			public void handle(Void v) {
-				handler.handle(true);
+				handler.handle(appsByStructure);
 			}
-		};
-		for (final Object o : result) {
-			final int l = --k;
-			handlers[l] = new Handler<Void>() {
-				@Override
-				public void handle(Void v) {
-					if (o instanceof JsonObject) {
-						JsonObject j = (JsonObject) o;
-						JsonObject message = new JsonObject()
-								.put("action", "link-role-group")
-								.put("groupId", j.getString("id"));
-						List r = j.getJsonArray("roles").getList();
-						r.removeAll(roles.values());
-						JsonArray roleIds = new JsonArray(r);
-						for (fr.wseduc.eliot.pojo.Application app : entry.getValue().getApplications()) {
-							if (!Application.SCOLARITE.name().equals(app.getCode()) ||
-									(Application.SCOLARITE.name().equals(app.getCode()) &&
-											j.getString("name", "").contains("-SCOLARITE"))) {
-								roleIds.add(roles.get(app.getCode()));
+		});
+	}
+
+	private void getApplications(final SyncMetrics.Run run, final String structure, final String rne,
+			final String etag, final Applications previous, final long deadline, final Handler<Applications> handler) {
+		final long start = System.nanoTime();
+		saasClient.getProductEtab(rne, etag, deadline, new Handler<AsyncResult<SaasResponse>>() {
+			@Override
+			public void handle(AsyncResult<SaasResponse> ar) {
+				if (ar.failed() && ar.cause() instanceof EliotSaasClient.UnavailableException) {
+					handler.handle(stale(run, rne, previous));
+					return;
+				}
+				run.saasCall((System.nanoTime() - start) / 1000000,
+						ar.succeeded() ? ar.result().getStatusCode() : null);
+				if (ar.failed()) {
+					log.error("Exception when call Eliot webservice", ar.cause());
+					handler.handle(stale(run, rne, previous));
+				} else if (ar.result().getStatusCode() == 304 && etag != null) {
+					handler.handle(previous);
+				} else if (ar.result().getStatusCode() == 200) {
+					final Buffer event = ar.result().getBody();
+					final String responseEtag = ar.result().getEtag();
+					parserExecutor.executeBlocking(new Handler<Future<Applications>>() {
+						@Override
+						public void handle(Future<Applications> future) {
+							final SyncMetrics.Phase parsePhase = run.phase("parse");
+							try {
+								future.complete(ApplicationsParser.parse(event));
+							} catch (XMLStreamException e) {
+								future.fail(e);
+							} finally {
+								parsePhase.end();
 							}
 						}
-						message.put("roleIds", roleIds);
-						log.debug(message.encodePrettily());
-						eb.send("wse.app.registry.bus", message, handlerToAsyncHandler(new Handler<Message<JsonObject>>() {
-							@Override
-							public void handle(Message<JsonObject> event) {
-								if ("ok".equals(event.body().getString("status"))) {
-									handlers[l + 1].handle(null);
-								} else {
-									log.error(event.body().getString("message"));
-									handler.handle(false);
-								}
+					}, false, new Handler<AsyncResult<Applications>>() {
+						@Override
+						public void handle(AsyncResult<Applications> parsed) {
+							if (parsed.failed()) {
+								run.parseFailure();
+								log.error("Error when unmarshal applications to structure " + rne, parsed.cause());
+								handler.handle(null);
+								return;
 							}
-						}));
-					}
-				}
-			};
-		}
-		handlers[0].handle(null);
-	}
-
-	private void getApplications(JsonArray structures, final Handler<Map<String, Applications>> handler) {
-		final Map<String, Applications> appsByStructure = new HashMap<>();
-		final AtomicInteger count = new AtomicInteger(structures.size());
-		final String baseUri = "/eliot-saas-util/action/webService/getProductEtabWS?appli=" + appliCode + "&rne=";
-		final JsonArray activeRne = new JsonArray();
-		for (Object s : structures) {
-			if (!(s instanceof JsonObject)) continue;
-			final String structure = ((JsonObject) s).getString("id");
-			final String rne = ((JsonObject) s).getString("UAI");
-			log.info(config.getString("uri"));
-			log.info(baseUri + rne);
-			HttpClientRequest req = client.get(baseUri + rne, new Handler<HttpClientResponse>() {
-				@Override
-				public void handle(HttpClientResponse event) {
-					if (event.statusCode() == 200) {
-						activeRne.add(rne);
-						event.bodyHandler(new Handler<Buffer>() {
-							@Override
-							public void handle(Buffer event) {
-								try {
-									JAXBContext context = JAXBContext.newInstance(Applications.class);
-									Unmarshaller um = context.createUnmarshaller();
-									Applications applications = (Applications) um.unmarshal(new StringReader(event.toString()));
-									applications.setRne(rne);
-									appsByStructure.put(structure, applications);
-									if (log.isDebugEnabled()) {
-										log.debug("Structure : " + structure + " - UAI : " + rne +
-												" - APPS : " +event.toString());
-									}
-								} catch (JAXBException e) {
-									log.error("Error when unmarshal applications to structure " + rne, e);
-								} finally {
-									if (count.decrementAndGet() <= 0) {
-										handler.handle(appsByStructure);
-										persistActiveRne(activeRne);
-									}
-								}
+							final Applications applications = parsed.result();
+							applications.setRne(rne);
+							if (responseEtag != null) {
+								etags.put(rne, responseEtag);
+							} else {
+								etags.remove(rne);
 							}
-						});
-					} else {
-						log.error("Error " + event.statusCode() + " getting applications to structure " + rne);
-						log.error("Status : " + event.statusMessage());
-						event.bodyHandler(new Handler<Buffer>() {
-							@Override
-							public void handle(Buffer event) {
-								log.error(">>> " + event.toString());
+							if (log.isDebugEnabled()) {
+								log.debug("Structure : " + structure + " - UAI : " + rne +
+										" - APPS : " +event.toString());
 							}
-						});
-						if (count.decrementAndGet() <= 0) {
-							handler.handle(appsByStructure);
-							persistActiveRne(activeRne);
+							handler.handle(applications);
 						}
-					}
+					});
+				} else {
+					log.error("Error " + ar.result().getStatusCode() + " getting applications to structure " + rne);
+					log.error("Status : " + ar.result().getStatusMessage());
+					log.error(">>> " + ar.result().getBody().toString());
+					handler.handle(EliotSaasClient.isRetryable(ar.result().getStatusCode()) ?
+							stale(run, rne, previous) : null);
 				}
-			});
-			req.exceptionHandler(except ->  log.error("Exception when call Eliot webservice", except));
-			req.end();
-		}
-	}
-
-	private void persistActiveRne(JsonArray activeRne) {
-		if (activeRne == null || activeRne.size() == 0) return;
-		final JsonObject params = new JsonObject().put("activeRne", activeRne);
-		StatementsBuilder sb = new StatementsBuilder()
-				.add(
-						"MATCH (s:Structure) " +
-						"WHERE s.UAI IN {activeRne} AND NOT('ELIOT' IN s.exports) " +
-						"SET s.exports = coalesce(s.exports, []) + 'ELIOT' ", params)
-				.add(
-						"MATCH (s:Structure) " +
-						"WHERE HAS(s.UAI) AND NOT(s.UAI IN {activeRne}) AND 'ELIOT' IN s.exports " +
-						"SET s.exports = FILTER(e IN s.exports WHERE e <> 'ELIOT') ", params);
+			}
+		});
+	}
+
+	/**
+	 * @return the previous applications of the structure if its UAI did not change, so that an outage
+	 * of the SaaS does not close Eliot to the structure.
+	 */
+	private Applications stale(SyncMetrics.Run run, String rne, Applications previous) {
+		if (previous == null || rne == null || !rne.equals(previous.getRne())) {
+			return null;
+		}
+		run.staleStructure();
+		return previous;
+	}
+
+	/**
+	 * Flags the structures answered by Eliot with the ELIOT export. Once a full pass has been persisted,
+	 * only the UAI added or removed since the previous sync are written.
+	 */
+	private void persistActiveRne(final SyncMetrics.Run run, JsonArray activeRne, final Handler<Void> handler) {
+		if (activeRne == null || activeRne.size() == 0) {
+			handler.handle(null);
+			return;
+		}
+		final Set<String> active = stringSet(activeRne);
+		final StatementsBuilder sb = new StatementsBuilder();
+		if (differentialSync && persistedActiveRne != null) {
+			final Set<String> added = difference(active, persistedActiveRne);
+			final Set<String> removed = difference(persistedActiveRne, active);
+			if (added.isEmpty() && removed.isEmpty()) {
+				log.info("Eliot active RNE unchanged.");
+				handler.handle(null);
+				return;
+			}
+			log.info("Eliot active RNE : " + added.size() + " added, " + removed.size() + " removed.");
+			if (!added.isEmpty()) {
+				sb.add(
+						"UNWIND {added} AS uai " +
+						"MATCH (s:Structure {UAI: uai}) " +
+						"WHERE NOT('ELIOT' IN s.exports) " +
+						"SET s.exports = coalesce(s.exports, []) + 'ELIOT' ",
+						new JsonObject().put("added", new JsonArray(new ArrayList<>(added))));
+			}
+			if (!removed.isEmpty()) {
+				sb.add(
+						"UNWIND {removed} AS uai " +
+						"MATCH (s:Structure {UAI: uai}) " +
+						"WHERE 'ELIOT' IN s.exports " +
+						"SET s.exports = FILTER(e IN s.exports WHERE e <> 'ELIOT') ",
+						new JsonObject().put("removed", new JsonArray(new ArrayList<>(removed))));
+			}
+		} else {
+			final JsonObject params = new JsonObject().put("activeRne", activeRne);
+			sb.add(
+					"MATCH (s:Structure) " +
+					"WHERE s.UAI IN {activeRne} AND NOT('ELIOT' IN s.exports) " +
+					"SET s.exports = coalesce(s.exports, []) + 'ELIOT' ", params)
+			.add(
+					"MATCH (s:Structure) " +
+					"WHERE HAS(s.UAI) AND NOT(s.UAI IN {activeRne}) AND 'ELIOT' IN s.exports " +
+					"SET s.exports = FILTER(e IN s.exports WHERE e <> 'ELIOT') ", params);
+		}
+		final SyncMetrics.Phase neo4jPhase = run.phase("neo4j");
+		run.neo4jCall();
 		neo4j.executeTransaction(sb.build(), null, true, new Handler<Message<JsonObject>>() {
 			@Override
 			public void handle(Message<JsonObject> event) {
+				neo4jPhase.end();
 				if (!"ok".equals(event.body().getString("status"))) {
 					log.error("Error setting Eliot active RNE : " + event.body().getString("message"));
+				} else {
+					persistedActiveRne = active;
 				}
+				handler.handle(null);
 			}
 		});
 	}
 
-	private void getStructures(final Handler<JsonArray> structures) {
+	static Set<String> stringSet(JsonArray values) {
+		final Set<String> set = new HashSet<>();
+		for (Object o : values) {
+			if (o instanceof String) {
+				set.add((String) o);
+			}
+		}
+		return set;
+	}
+
+	/**
+	 * @return the values of from which are not in minus.
+	 */
+	static Set<String> difference(Set<String> from, Set<String> minus) {
+		final Set<String> difference = new HashSet<>(from);
+		difference.removeAll(minus);
+		return difference;
+	}
+
+	private void getStructures(final SyncMetrics.Run run, final Handler<JsonArray> structures) {
 		JsonObject jo = new JsonObject();
 		jo.put("action", "list-structures");
 		jo.put("fields", new JsonArray().add("id").add("UAI"));
+		run.busCall();
 		eb.send("directory", jo, handlerToAsyncHandler(new Handler<Message<JsonObject>>() {
 			@Override
 			public void handle(Message<JsonObject> event) {
@@ -858,6 +1745,73 @@ public class EliotController extends BaseController {
 		}));
 	}
 
+	/**
+	 * @return the shard of the structure : the first hex digits of its id modulo the number of shards,
+	 * 0 if the id does not start with hex digits.
+	 */
+	static int shardOf(String structureId, int shards) {
+		if (structureId == null || structureId.length() < SHARD_KEY_LENGTH) {
+			return 0;
+		}
+		int key = 0;
+		for (int i = 0; i < SHARD_KEY_LENGTH; i++) {
+			final char c = Character.toLowerCase(structureId.charAt(i));
+			if (c >= '0' && c <= '9') {
+				key = key * 16 + c - '0';
+			} else if (c >= 'a' && c <= 'f') {
+				key = key * 16 + c - 'a' + 10;
+			} else {
+				return 0;
+			}
+		}
+		return key % shards;
+	}
+
+	/**
+	 * @return the lower case id prefixes of the structures of the shard.
+	 */
+	static JsonArray shardPrefixes(int shard, int shards) {
+		final JsonArray prefixes = new JsonArray();
+		for (int key = shard; key < SHARD_KEYS; key += shards) {
+			final String hex = Integer.toHexString(key);
+			final StringBuilder prefix = new StringBuilder(SHARD_KEY_LENGTH);
+			for (int i = hex.length(); i < SHARD_KEY_LENGTH; i++) {
+				prefix.append('0');
+			}
+			prefixes.add(prefix.append(hex).toString());
+		}
+		return prefixes;
+	}
+
+	/**
+	 * Lists the structures of a shard, selected by Neo4j rather than filtered out of the whole directory.
+	 * Ids which do not start with hex digits belong to the shard 0, as in {@link #shardOf(String, int)}.
+	 */
+	private void getShardStructures(final SyncMetrics.Run run, int shard, final Handler<JsonArray> structures) {
+		final String query =
+				"MATCH (s:Structure) " +
+				"WITH s, toLower(substring(s.id, 0, " + SHARD_KEY_LENGTH + ")) as prefix " +
+				"WHERE prefix IN {prefixes} OR ({others} AND NOT(prefix =~ '[0-9a-f]{" + SHARD_KEY_LENGTH + "}')) " +
+				"RETURN s.id as id, s.UAI as UAI ";
+		final JsonObject params = new JsonObject()
+				.put("prefixes", shardPrefixes(shard, syncShards))
+				.put("others", shard == 0);
+		run.neo4jCall();
+		neo4j.execute(query, params, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				final JsonArray result = event.body().getJsonArray("result");
+				if ("ok".equals(event.body().getString("status")) && result != null) {
+					structures.handle(result);
+				} else {
+					log.error("Error listing the structures of shard " + shard + " : " +
+							event.body().getString("message"));
+					structures.handle(null);
+				}
+			}
+		});
+	}
+
 	private void sendError(Message<JsonObject> message, String s) {
 		log.error(s);
 		message.reply(new JsonObject()
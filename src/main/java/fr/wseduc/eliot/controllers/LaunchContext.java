@@ -0,0 +1,62 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.controllers;
+
+import fr.wseduc.eliot.controllers.EliotController.Application;
+import io.vertx.core.http.HttpServerRequest;
+import org.entcore.common.user.UserInfos;
+
+/**
+ * State of one launch request, the user session is resolved once and shared by every step.
+ */
+final class LaunchContext {
+
+	private final HttpServerRequest request;
+	private final Application application;
+	private final UserInfos user;
+	private final long start;
+
+	LaunchContext(HttpServerRequest request, Application application, UserInfos user, long start) {
+		this.request = request;
+		this.application = application;
+		this.user = user;
+		this.start = start;
+	}
+
+	HttpServerRequest getRequest() {
+		return request;
+	}
+
+	Application getApplication() {
+		return application;
+	}
+
+	UserInfos getUser() {
+		return user;
+	}
+
+	/**
+	 * @return the arrival time of the request, from {@link System#nanoTime()}
+	 */
+	long getStart() {
+		return start;
+	}
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.entitlements;
+
+import fr.wseduc.eliot.controllers.EliotController.Application;
+import fr.wseduc.eliot.pojo.Applications;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Structure id to (RNE, applications) index, built once per sync and read on every launch.
+ */
+public final class EntitlementIndex {
+
+	public static final EntitlementIndex EMPTY =
+			new EntitlementIndex(Collections.<String, StructureEntitlements>emptyMap());
+
+	private final Map<String, StructureEntitlements> structures;
+
+	private EntitlementIndex(Map<String, StructureEntitlements> structures) {
+		this.structures = structures;
+	}
+
+	public static EntitlementIndex build(Map<String, Applications> appsByStructure) {
+		final Map<String, StructureEntitlements> structures = new HashMap<>(appsByStructure.size() * 2);
+		for (Map.Entry<String, Applications> entry : appsByStructure.entrySet()) {
+			if (entry.getValue() == null || entry.getValue().getRne() == null) continue;
+			structures.put(entry.getKey(), StructureEntitlements.of(entry.getValue()));
+		}
+		return new EntitlementIndex(Collections.unmodifiableMap(structures));
+	}
+
+	/**
+	 * @return the RNE of the first structure opened to the application, null if none is.
+	 */
+	public String rne(Collection<String> structureIds, Application application) {
+		final int bit = StructureEntitlements.bit(application);
+		for (String structureId : structureIds) {
+			final StructureEntitlements entitlements = structures.get(structureId);
+			if (entitlements != null && (entitlements.getMask() & bit) != 0) {
+				return entitlements.getRne();
+			}
+		}
+		return null;
+	}
+
+	public StructureEntitlements get(String structureId) {
+		return structures.get(structureId);
+	}
+
+	public Collection<StructureEntitlements> values() {
+		return structures.values();
+	}
+
+	public int size() {
+		return structures.size();
+	}
+
+}
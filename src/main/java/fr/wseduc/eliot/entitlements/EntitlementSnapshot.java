@@ -0,0 +1,159 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.entitlements;
+
+import fr.wseduc.eliot.pojo.Application;
+import fr.wseduc.eliot.pojo.Applications;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable state of the Eliot entitlements published by a sync.
+ * A new snapshot replaces the previous one with a single reference swap, so launch
+ * requests always read a complete state without locking.
+ * Snapshots are ordered by the epoch of the sync lock election they were published in, then by version,
+ * never by their build time which depends on the clock of the publishing node.
+ */
+public final class EntitlementSnapshot {
+
+	public static final EntitlementSnapshot EMPTY = new EntitlementSnapshot(0, 0, 0,
+			Collections.<String, Applications>emptyMap(), EntitlementIndex.EMPTY);
+
+	private final long epoch;
+	private final long version;
+	private final long builtAt;
+	private final Map<String, Applications> applications;
+	private final EntitlementIndex index;
+
+	private EntitlementSnapshot(long epoch, long version, long builtAt, Map<String, Applications> applications,
+			EntitlementIndex index) {
+		this.epoch = epoch;
+		this.version = version;
+		this.builtAt = builtAt;
+		this.applications = applications;
+		this.index = index;
+	}
+
+	/**
+	 * @param epoch epoch of the sync lock held by the publishing node, 0 out of a cluster.
+	 */
+	public EntitlementSnapshot next(long epoch, Map<String, Applications> appsByStructure) {
+		final Map<String, Applications> applications = Collections.unmodifiableMap(new HashMap<>(appsByStructure));
+		return new EntitlementSnapshot(epoch, version + 1, System.currentTimeMillis(), applications,
+				EntitlementIndex.build(applications));
+	}
+
+	/**
+	 * Rebuilds a stored snapshot, the map is not copied and must not be modified afterwards.
+	 */
+	static EntitlementSnapshot restore(long epoch, long version, long builtAt,
+			Map<String, Applications> appsByStructure) {
+		final Map<String, Applications> applications = Collections.unmodifiableMap(appsByStructure);
+		return new EntitlementSnapshot(epoch, version, builtAt, applications, EntitlementIndex.build(applications));
+	}
+
+	/**
+	 * @return true if this snapshot was published after the other one.
+	 */
+	public boolean isNewerThan(EntitlementSnapshot other) {
+		return epoch != other.epoch ? epoch > other.epoch : version > other.version;
+	}
+
+	public long getEpoch() {
+		return epoch;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public long getBuiltAt() {
+		return builtAt;
+	}
+
+	public Map<String, Applications> getApplications() {
+		return applications;
+	}
+
+	public EntitlementIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * @param etags ETag of the last getProductEtabWS answer of each RNE, sent along so that the node
+	 * receiving the snapshot can issue conditional requests if it runs the next sync.
+	 * @return the full snapshot, as broadcast to the other nodes of the cluster.
+	 */
+	public JsonObject encode(Map<String, String> etags) {
+		final JsonArray structures = new JsonArray();
+		for (Map.Entry<String, Applications> entry : applications.entrySet()) {
+			final JsonArray codes = new JsonArray();
+			for (Application application : entry.getValue().getApplications()) {
+				codes.add(application.getCode());
+			}
+			final String rne = entry.getValue().getRne();
+			structures.add(new JsonObject()
+					.put("id", entry.getKey())
+					.put("rne", rne)
+					.put("etag", rne != null ? etags.get(rne) : null)
+					.put("codes", codes));
+		}
+		return new JsonObject()
+				.put("epoch", epoch)
+				.put("version", version)
+				.put("builtAt", builtAt)
+				.put("structures", structures);
+	}
+
+	/**
+	 * Rebuilds a snapshot encoded by {@link #encode(Map)}, keeping its epoch, version and build time.
+	 */
+	public static EntitlementSnapshot decode(JsonObject json) {
+		final JsonArray structures = json.getJsonArray("structures", new JsonArray());
+		final Map<String, Applications> appsByStructure = new HashMap<>(structures.size() * 2);
+		for (Object o : structures) {
+			if (!(o instanceof JsonObject)) continue;
+			final JsonObject s = (JsonObject) o;
+			final Applications applications = new Applications();
+			applications.setRne(s.getString("rne"));
+			for (Object code : s.getJsonArray("codes", new JsonArray())) {
+				final Application application = new Application();
+				application.setCode((String) code);
+				applications.getApplications().add(application);
+			}
+			appsByStructure.put(s.getString("id"), applications);
+		}
+		return restore(json.getLong("epoch", 0l), json.getLong("version", 0l), json.getLong("builtAt", 0l),
+				appsByStructure);
+	}
+
+	public JsonObject toJson() {
+		return new JsonObject()
+				.put("epoch", epoch)
+				.put("version", version)
+				.put("builtAt", builtAt)
+				.put("structures", index.size());
+	}
+
+}
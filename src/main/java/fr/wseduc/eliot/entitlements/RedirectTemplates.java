@@ -0,0 +1,108 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.entitlements;
+
+import fr.wseduc.eliot.controllers.EliotController.Application;
+import fr.wseduc.eliot.utils.LruCache;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pre-encoded fragments of the CAS redirect sent on launch :
+ * <pre>/adapter?eliot=app#host/cas/login?ticketAttributeName=casTicket&amp;service=
+ *     encode(eliotUri&amp;rne=RNE&amp;module=APP&amp;hostCAS=encode(host/cas))</pre>
+ * URL encoding works character by character, so the service parameter is the concatenation
+ * of an (RNE, application) fragment, built with each snapshot, and of a host fragment,
+ * cached per host. A launch only concatenates three strings.
+ */
+public final class RedirectTemplates {
+
+	private static final Application[] APPLICATIONS = Application.values();
+
+	private final String eliotUri;
+	private final LruCache<String, String[]> hosts;
+	private volatile Map<String, String[]> services = Collections.emptyMap();
+
+	public RedirectTemplates(String eliotUri, int maxHosts) {
+		this.eliotUri = eliotUri;
+		this.hosts = new LruCache<>(maxHosts, 0);
+	}
+
+	/**
+	 * Precomputes the (RNE, application) fragments of the structures opened to Eliot.
+	 */
+	public void rebuild(EntitlementIndex index) {
+		final Map<String, String[]> s = new HashMap<>(index.size() * 2);
+		for (StructureEntitlements entitlements : index.values()) {
+			final String[] fragments = new String[APPLICATIONS.length];
+			for (Application application : APPLICATIONS) {
+				if (entitlements.allows(application)) {
+					fragments[application.ordinal()] = service(entitlements.getRne(), application);
+				}
+			}
+			s.put(entitlements.getRne(), fragments);
+		}
+		services = s;
+	}
+
+	/**
+	 * @param host scheme and host of the request, ie <code>https://ent.example.com</code>
+	 */
+	public String redirect(String host, String rne, Application application) {
+		String[] h = hosts.get(host);
+		if (h == null) {
+			h = host(host);
+			hosts.put(host, h);
+		}
+		final String[] fragments = services.get(rne);
+		String service = fragments != null ? fragments[application.ordinal()] : null;
+		if (service == null) {
+			service = service(rne, application);
+		}
+		return h[application.ordinal()] + service + h[APPLICATIONS.length];
+	}
+
+	private String service(String rne, Application application) {
+		return encode(eliotUri + "&rne=" + rne + "&module=" + application.name() + "&hostCAS=");
+	}
+
+	private static String[] host(String host) {
+		final String[] h = new String[APPLICATIONS.length + 1];
+		for (Application application : APPLICATIONS) {
+			h[application.ordinal()] = "/adapter?eliot=" + application.name().toLowerCase() + "#" + host +
+					"/cas/login?ticketAttributeName=casTicket&service=";
+		}
+		h[APPLICATIONS.length] = encode(encode(host + "/cas"));
+		return h;
+	}
+
+	private static String encode(String s) {
+		try {
+			return URLEncoder.encode(s, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.entitlements;
+
+import fr.wseduc.eliot.pojo.Application;
+import fr.wseduc.eliot.pojo.Applications;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Local copy of the last published snapshot, so that a restarted node serves launches before its first sync.
+ * <pre>
+ * int magic, short format, long version, long builtAt, int structures,
+ *   per structure : string id, string rne, string etag, short codes, string code...
+ * long crc32 of the previous bytes
+ * </pre>
+ * Strings are an unsigned short byte length, -1 (0xFFFF) for null, followed by UTF-8 bytes.
+ * The epoch of the snapshot is not stored : a loaded snapshot is older than any snapshot of the cluster.
+ * Files are written to a temporary file private to the writer then atomically renamed, and read through
+ * a memory mapping. The file decides which structures are opened to Eliot : it must be kept in a directory
+ * only writable by the ENT.
+ * These methods block and must run on a worker.
+ */
+public final class SnapshotStore {
+
+	private static final int MAGIC = 0x454c494f;
+	private static final short FORMAT = 1;
+	private static final int NULL = 0xffff;
+
+	private final Path path;
+
+	public SnapshotStore(String path) {
+		this.path = Paths.get(path);
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * @param etags ETag of the last getProductEtabWS answer of each RNE
+	 */
+	public void write(EntitlementSnapshot snapshot, Map<String, String> etags) throws IOException {
+		final Path parent = path.toAbsolutePath().getParent();
+		if (parent != null) {
+			Files.createDirectories(parent);
+		}
+		final Path tmp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName() + ".", ".tmp");
+		try {
+			write(snapshot, etags, tmp);
+			Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private void write(EntitlementSnapshot snapshot, Map<String, String> etags, Path tmp) throws IOException {
+		final CRC32 crc = new CRC32();
+		try (FileOutputStream fos = new FileOutputStream(tmp.toFile())) {
+			final DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new CheckedOutputStream(fos, crc), 65536));
+			out.writeInt(MAGIC);
+			out.writeShort(FORMAT);
+			out.writeLong(snapshot.getVersion());
+			out.writeLong(snapshot.getBuiltAt());
+			out.writeInt(snapshot.getApplications().size());
+			for (Map.Entry<String, Applications> entry : snapshot.getApplications().entrySet()) {
+				final Applications applications = entry.getValue();
+				writeString(out, entry.getKey());
+				writeString(out, applications.getRne());
+				writeString(out, applications.getRne() != null ? etags.get(applications.getRne()) : null);
+				out.writeShort(applications.getApplications().size());
+				for (Application application : applications.getApplications()) {
+					writeString(out, application.getCode());
+				}
+			}
+			out.flush();
+			new DataOutputStream(fos).writeLong(crc.getValue());
+			fos.getFD().sync();
+		}
+	}
+
+	/**
+	 * @return the stored snapshot, null if there is no snapshot file.
+	 * @throws IOException if the file can't be read or is corrupted.
+	 */
+	public Stored read() throws IOException {
+		final MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+		try {
+			if (buffer.limit() < 8) {
+				throw new IOException("Truncated snapshot file " + path);
+			}
+			final ByteBuffer content = buffer.duplicate();
+			content.limit(buffer.limit() - 8);
+			final CRC32 crc = new CRC32();
+			crc.update(content);
+			if (crc.getValue() != buffer.getLong(buffer.limit() - 8)) {
+				throw new IOException("Invalid checksum of snapshot file " + path);
+			}
+			if (buffer.getInt() != MAGIC || buffer.getShort() != FORMAT) {
+				throw new IOException("Unsupported snapshot file " + path);
+			}
+			final long version = buffer.getLong();
+			final long builtAt = buffer.getLong();
+			final int size = buffer.getInt();
+			final Map<String, Applications> appsByStructure = new HashMap<>(size * 2);
+			final Map<String, String> etags = new HashMap<>();
+			for (int i = 0; i < size; i++) {
+				final String structureId = readString(buffer);
+				final Applications applications = new Applications();
+				applications.setRne(readString(buffer));
+				final String etag = readString(buffer);
+				if (applications.getRne() != null && etag != null) {
+					etags.put(applications.getRne(), etag);
+				}
+				for (int codes = buffer.getShort() & 0xffff; codes > 0; codes--) {
+					final Application application = new Application();
+					application.setCode(readString(buffer));
+					applications.getApplications().add(application);
+				}
+				appsByStructure.put(structureId, applications);
+			}
+			return new Stored(EntitlementSnapshot.restore(0, version, builtAt, appsByStructure),
+					Collections.unmodifiableMap(etags));
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			throw new IOException("Corrupted snapshot file " + path, e);
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeShort(NULL);
+			return;
+		}
+		final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length >= NULL) {
+			throw new IOException("String too long for the snapshot file : " + bytes.length + " bytes");
+		}
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		final int length = buffer.getShort() & 0xffff;
+		if (length == NULL) {
+			return null;
+		}
+		final byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public static final class Stored {
+
+		private final EntitlementSnapshot snapshot;
+		private final Map<String, String> etags;
+
+		private Stored(EntitlementSnapshot snapshot, Map<String, String> etags) {
+			this.snapshot = snapshot;
+			this.etags = etags;
+		}
+
+		public EntitlementSnapshot getSnapshot() {
+			return snapshot;
+		}
+
+		public Map<String, String> getEtags() {
+			return etags;
+		}
+
+	}
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.entitlements;
+
+import fr.wseduc.eliot.controllers.EliotController.Application;
+import fr.wseduc.eliot.pojo.Applications;
+
+/**
+ * Eliot applications opened to a structure, as a bitmask of {@link Application} ordinals.
+ */
+public final class StructureEntitlements {
+
+	private static final Application[] APPLICATIONS = Application.values();
+
+	private final String rne;
+	private final int mask;
+
+	public StructureEntitlements(String rne, int mask) {
+		this.rne = rne;
+		this.mask = mask;
+	}
+
+	public static StructureEntitlements of(Applications applications) {
+		int mask = 0;
+		for (fr.wseduc.eliot.pojo.Application app : applications.getApplications()) {
+			for (Application application : APPLICATIONS) {
+				if (application.name().equals(app.getCode())) {
+					mask |= bit(application);
+					break;
+				}
+			}
+		}
+		return new StructureEntitlements(applications.getRne(), mask);
+	}
+
+	public static int bit(Application application) {
+		return 1 << application.ordinal();
+	}
+
+	public boolean allows(Application application) {
+		return (mask & bit(application)) != 0;
+	}
+
+	public String getRne() {
+		return rne;
+	}
+
+	public int getMask() {
+		return mask;
+	}
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.metrics;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed buckets latency histogram, in the unit of its bounds (milliseconds by default).
+ * Recording a value does not allocate.
+ */
+public final class LatencyHistogram {
+
+	public static final long[] DEFAULT_BOUNDS = { 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000 };
+
+	private final long[] bounds;
+	private final LongAdder[] buckets;
+	private final LongAdder sum = new LongAdder();
+
+	public LatencyHistogram() {
+		this(DEFAULT_BOUNDS);
+	}
+
+	public LatencyHistogram(long[] bounds) {
+		this.bounds = bounds.clone();
+		this.buckets = new LongAdder[bounds.length + 1];
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	public void record(long millis) {
+		int i = 0;
+		while (i < bounds.length && millis > bounds[i]) {
+			i++;
+		}
+		buckets[i].increment();
+		sum.add(millis);
+	}
+
+	public long[] getBounds() {
+		return bounds.clone();
+	}
+
+	/**
+	 * @return the number of values lower than or equal to each bound, the last count being the total.
+	 */
+	public long[] cumulativeCounts() {
+		final long[] counts = new long[buckets.length];
+		long c = 0;
+		for (int i = 0; i < buckets.length; i++) {
+			c += buckets[i].sum();
+			counts[i] = c;
+		}
+		return counts;
+	}
+
+	public long getSum() {
+		return sum.sum();
+	}
+
+	public JsonObject toJson() {
+		final long[] counts = cumulativeCounts();
+		final JsonObject b = new JsonObject();
+		for (int i = 0; i < bounds.length; i++) {
+			b.put(Long.toString(bounds[i]), counts[i]);
+		}
+		b.put("+Inf", counts[bounds.length]);
+		return new JsonObject()
+				.put("count", counts[bounds.length])
+				.put("sum", getSum())
+				.put("buckets", b);
+	}
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.metrics;
+
+import fr.wseduc.eliot.controllers.EliotController.Application;
+import io.vertx.core.json.JsonObject;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the launch routes, per application.
+ * Latencies are recorded in microseconds and exported in seconds. Recording never allocates.
+ */
+public final class LaunchMetrics {
+
+	public enum Phase {
+		SESSION("session"), SAFARI_COOKIE("safari_cookie"), RNE("rne"), REDIRECT("redirect"), TOTAL("total");
+
+		private final String label;
+
+		Phase(String label) {
+			this.label = label;
+		}
+
+		public String getLabel() {
+			return label;
+		}
+	}
+
+	private static final long[] BOUNDS = { 50, 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000,
+			100000, 250000, 500000, 1000000, 2500000 };
+	private static final String[] LE = new String[BOUNDS.length];
+	static {
+		for (int i = 0; i < BOUNDS.length; i++) {
+			LE[i] = BigDecimal.valueOf(BOUNDS[i], 6).stripTrailingZeros().toPlainString();
+		}
+	}
+	private static final Application[] APPLICATIONS = Application.values();
+	private static final Phase[] PHASES = Phase.values();
+
+	private final LongAdder launches = new LongAdder();
+	private final LongAdder[] launchesByApplication = adders();
+	private final LongAdder[] deniesByApplication = adders();
+	private final LatencyHistogram[][] latencies = new LatencyHistogram[APPLICATIONS.length][PHASES.length];
+
+	public LaunchMetrics() {
+		for (int a = 0; a < APPLICATIONS.length; a++) {
+			for (int p = 0; p < PHASES.length; p++) {
+				latencies[a][p] = new LatencyHistogram(BOUNDS);
+			}
+		}
+	}
+
+	private static LongAdder[] adders() {
+		final LongAdder[] adders = new LongAdder[APPLICATIONS.length];
+		for (int i = 0; i < adders.length; i++) {
+			adders[i] = new LongAdder();
+		}
+		return adders;
+	}
+
+	public void launch(Application application) {
+		launches.increment();
+		launchesByApplication[application.ordinal()].increment();
+	}
+
+	public void deny(Application application) {
+		deniesByApplication[application.ordinal()].increment();
+	}
+
+	/**
+	 * @param start start of the phase, from {@link System#nanoTime()}
+	 */
+	public void record(Application application, Phase phase, long start) {
+		latencies[application.ordinal()][phase.ordinal()].record((System.nanoTime() - start) / 1000);
+	}
+
+	public JsonObject toJson() {
+		final JsonObject applications = new JsonObject();
+		for (Application application : APPLICATIONS) {
+			final JsonObject phases = new JsonObject();
+			for (Phase phase : PHASES) {
+				phases.put(phase.getLabel(), latencies[application.ordinal()][phase.ordinal()].toJson());
+			}
+			applications.put(application.name().toLowerCase(), new JsonObject()
+					.put("launches", launchesByApplication[application.ordinal()].sum())
+					.put("denies", deniesByApplication[application.ordinal()].sum())
+					.put("latencies", phases));
+		}
+		return new JsonObject()
+				.put("launches", launches.sum())
+				.put("applications", applications);
+	}
+
+	/**
+	 * @return the metrics in the Prometheus text exposition format.
+	 */
+	public String toPrometheus() {
+		final StringBuilder sb = new StringBuilder(16384);
+		sb.append("# HELP eliot_launch_requests_total Launch requests.\n")
+				.append("# TYPE eliot_launch_requests_total counter\n");
+		for (Application application : APPLICATIONS) {
+			sample(sb, "eliot_launch_requests_total", application, null, null)
+					.append(launchesByApplication[application.ordinal()].sum()).append('\n');
+		}
+		sb.append("# HELP eliot_launch_denied_total Launch requests answered with 401.\n")
+				.append("# TYPE eliot_launch_denied_total counter\n");
+		for (Application application : APPLICATIONS) {
+			sample(sb, "eliot_launch_denied_total", application, null, null)
+					.append(deniesByApplication[application.ordinal()].sum()).append('\n');
+		}
+		sb.append("# HELP eliot_launch_duration_seconds Duration of the launch request phases.\n")
+				.append("# TYPE eliot_launch_duration_seconds histogram\n");
+		for (Application application : APPLICATIONS) {
+			for (Phase phase : PHASES) {
+				final LatencyHistogram h = latencies[application.ordinal()][phase.ordinal()];
+				final long[] counts = h.cumulativeCounts();
+				for (int i = 0; i < BOUNDS.length; i++) {
+					sample(sb, "eliot_launch_duration_seconds_bucket", application, phase,
+							LE[i]).append(counts[i]).append('\n');
+				}
+				sample(sb, "eliot_launch_duration_seconds_bucket", application, phase, "+Inf")
+						.append(counts[BOUNDS.length]).append('\n');
+				sample(sb, "eliot_launch_duration_seconds_sum", application, phase, null)
+						.append(h.getSum() / 1e6).append('\n');
+				sample(sb, "eliot_launch_duration_seconds_count", application, phase, null)
+						.append(counts[BOUNDS.length]).append('\n');
+			}
+		}
+		return sb.toString();
+	}
+
+	private static StringBuilder sample(StringBuilder sb, String name, Application application, Phase phase,
+			String le) {
+		sb.append(name).append("{application=\"").append(application.name().toLowerCase()).append('"');
+		if (phase != null) {
+			sb.append(",phase=\"").append(phase.getLabel()).append('"');
+		}
+		if (le != null) {
+			sb.append(",le=\"").append(le).append('"');
+		}
+		return sb.append("} ");
+	}
+
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.metrics;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of the structures sync : totals since the start of the node, the run in progress and the last
+ * completed run. Each run records the duration of its phases, the SaaS latencies and status codes,
+ * the parse failures, the structures changed and the bus and Neo4j calls.
+ */
+public final class SyncMetrics {
+
+	private final AtomicLong runs = new AtomicLong();
+	private final LatencyHistogram saasLatency = new LatencyHistogram();
+	private final ConcurrentHashMap<String, LongAdder> saasStatus = new ConcurrentHashMap<>();
+	private final LongAdder parseFailures = new LongAdder();
+	private final LongAdder staleStructures = new LongAdder();
+	private final LongAdder busCalls = new LongAdder();
+	private final LongAdder neo4jCalls = new LongAdder();
+	private volatile Run current;
+	private volatile JsonObject last;
+
+	public Run start(String trigger) {
+		final Run run = new Run(runs.incrementAndGet(), trigger);
+		current = run;
+		return run;
+	}
+
+	/**
+	 * Counts a bus call made outside of a sync run.
+	 */
+	public void busCall() {
+		busCalls.increment();
+	}
+
+	/**
+	 * Counts a Neo4j call made outside of a sync run.
+	 */
+	public void neo4jCall() {
+		neo4jCalls.increment();
+	}
+
+	public JsonObject toJson() {
+		final Run r = current;
+		return new JsonObject()
+				.put("runs", runs.get())
+				.put("current", r != null ? r.toJson() : null)
+				.put("last", last)
+				.put("total", new JsonObject()
+						.put("saasLatency", saasLatency.toJson())
+						.put("saasStatus", counters(saasStatus))
+						.put("parseFailures", parseFailures.sum())
+						.put("staleStructures", staleStructures.sum())
+						.put("busCalls", busCalls.sum())
+						.put("neo4jCalls", neo4jCalls.sum()));
+	}
+
+	private static JsonObject counters(Map<String, LongAdder> counters) {
+		final JsonObject j = new JsonObject();
+		for (Map.Entry<String, LongAdder> e : new TreeMap<>(counters).entrySet()) {
+			j.put(e.getKey(), e.getValue().sum());
+		}
+		return j;
+	}
+
+	private static void increment(ConcurrentHashMap<String, LongAdder> counters, String key) {
+		LongAdder c = counters.get(key);
+		if (c == null) {
+			final LongAdder n = new LongAdder();
+			c = counters.putIfAbsent(key, n);
+			if (c == null) {
+				c = n;
+			}
+		}
+		c.increment();
+	}
+
+	public final class Run {
+
+		private final long id;
+		private final String trigger;
+		private final long startedAt = System.currentTimeMillis();
+		private final long start = System.nanoTime();
+		private final Map<String, Long> phases = new LinkedHashMap<>();
+		private final LatencyHistogram runSaasLatency = new LatencyHistogram();
+		private final ConcurrentHashMap<String, LongAdder> runSaasStatus = new ConcurrentHashMap<>();
+		private final LongAdder runParseFailures = new LongAdder();
+		private final LongAdder runStaleStructures = new LongAdder();
+		private final LongAdder runBusCalls = new LongAdder();
+		private final LongAdder runNeo4jCalls = new LongAdder();
+		private volatile int structures;
+		private volatile int structuresChanged;
+		private volatile long duration = -1;
+
+		private Run(long id, String trigger) {
+			this.id = id;
+			this.trigger = trigger;
+		}
+
+		public Phase phase(String name) {
+			return new Phase(this, name);
+		}
+
+		private synchronized void addPhase(String name, long nanos) {
+			final Long previous = phases.get(name);
+			phases.put(name, (previous != null ? previous : 0L) + nanos);
+		}
+
+		/**
+		 * @param status the HTTP status code, or null if the call failed before any response
+		 */
+		public void saasCall(long millis, Integer status) {
+			final String s = status != null ? status.toString() : "error";
+			runSaasLatency.record(millis);
+			saasLatency.record(millis);
+			increment(runSaasStatus, s);
+			increment(saasStatus, s);
+		}
+
+		public void parseFailure() {
+			runParseFailures.increment();
+			parseFailures.increment();
+		}
+
+		/**
+		 * Counts a structure whose applications could not be refreshed and are kept from the previous snapshot.
+		 */
+		public void staleStructure() {
+			runStaleStructures.increment();
+			staleStructures.increment();
+		}
+
+		public void busCall() {
+			runBusCalls.increment();
+			busCalls.increment();
+		}
+
+		public void neo4jCall() {
+			runNeo4jCalls.increment();
+			neo4jCalls.increment();
+		}
+
+		public void setStructures(int structures) {
+			this.structures = structures;
+		}
+
+		public void setStructuresChanged(int structuresChanged) {
+			this.structuresChanged = structuresChanged;
+		}
+
+		/**
+		 * Ends the run, which becomes the last run. Ending a run twice has no effect.
+		 */
+		public synchronized void end() {
+			if (duration >= 0) return;
+			duration = (System.nanoTime() - start) / 1000000;
+			last = toJson();
+			if (current == this) {
+				current = null;
+			}
+		}
+
+		public synchronized JsonObject toJson() {
+			final JsonObject p = new JsonObject();
+			for (Map.Entry<String, Long> e : phases.entrySet()) {
+				p.put(e.getKey(), e.getValue() / 1000000);
+			}
+			return new JsonObject()
+					.put("id", id)
+					.put("trigger", trigger)
+					.put("startedAt", startedAt)
+					.put("duration", duration >= 0 ? duration : (System.nanoTime() - start) / 1000000)
+					.put("completed", duration >= 0)
+					.put("structures", structures)
+					.put("structuresChanged", structuresChanged)
+					.put("phases", p)
+					.put("saasLatency", runSaasLatency.toJson())
+					.put("saasStatus", counters(runSaasStatus))
+					.put("parseFailures", runParseFailures.sum())
+					.put("staleStructures", runStaleStructures.sum())
+					.put("busCalls", runBusCalls.sum())
+					.put("neo4jCalls", runNeo4jCalls.sum());
+		}
+
+		public synchronized String summary() {
+			final StringBuilder sb = new StringBuilder("Eliot sync ").append(id).append(" (").append(trigger)
+					.append(") : ").append(duration).append(" ms, ").append(structures).append(" structure(s), ")
+					.append(structuresChanged).append(" changed, ").append(runParseFailures.sum())
+					.append(" parse failure(s), ").append(runStaleStructures.sum())
+					.append(" stale, ").append(runBusCalls.sum()).append(" bus call(s), ")
+					.append(runNeo4jCalls.sum()).append(" neo4j call(s), saas status ")
+					.append(counters(runSaasStatus).encode()).append(", phases (ms) ");
+			for (Map.Entry<String, Long> e : phases.entrySet()) {
+				sb.append(e.getKey()).append('=').append(e.getValue() / 1000000).append(' ');
+			}
+			return sb.toString().trim();
+		}
+
+	}
+
+	/**
+	 * Time spent in a phase of a run. The durations of the phases ended several times are summed.
+	 */
+	public static final class Phase {
+
+		private final Run run;
+		private final String name;
+		private final long start = System.nanoTime();
+
+		private Phase(Run run, String name) {
+			this.run = run;
+			this.name = name;
+		}
+
+		public void end() {
+			run.addPhase(name, System.nanoTime() - start);
+		}
+
+	}
+
+}
@@ -23,10 +23,13 @@ import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlRootElement;
+import java.io.Serializable;
 
 @XmlAccessorType(XmlAccessType.FIELD)
 @XmlRootElement(name = "APPLI")
-public class Application {
+public class Application implements Serializable {
+
+	private static final long serialVersionUID = 1L;
 
 	@XmlAttribute
 	private String code;
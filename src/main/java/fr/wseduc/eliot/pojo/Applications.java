@@ -23,12 +23,16 @@ import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.TreeSet;
 
 @XmlAccessorType(XmlAccessType.FIELD)
 @XmlRootElement(name = "LIST")
-public class Applications {
+public class Applications implements Serializable {
+
+	private static final long serialVersionUID = 1L;
 
 	@XmlElement(name = "APPLI", type = Application.class)
 	private List<Application> applications = new ArrayList<>();
@@ -51,4 +55,18 @@ public class Applications {
 		this.rne = rne;
 	}
 
+	/**
+	 * Identifies the entitlements of the structure : two payloads listing the same
+	 * application codes, whatever their order, have the same fingerprint.
+	 */
+	public String fingerprint() {
+		final TreeSet<String> codes = new TreeSet<>();
+		for (Application application : applications) {
+			if (application.getCode() != null) {
+				codes.add(application.getCode());
+			}
+		}
+		return rne + ":" + codes;
+	}
+
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.services;
+
+import fr.wseduc.eliot.pojo.Application;
+import fr.wseduc.eliot.pojo.Applications;
+import io.netty.buffer.ByteBufInputStream;
+import io.vertx.core.buffer.Buffer;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Pull parser of getProductEtabWS answers (<code>&lt;LIST&gt;&lt;APPLI code="..."/&gt;&lt;/LIST&gt;</code>).
+ * The factory is built once and the buffer is read in place, without a string copy.
+ */
+public final class ApplicationsParser {
+
+	private static final String LIST = "LIST";
+	private static final String APPLI = "APPLI";
+	private static final String CODE = "code";
+	private static final XMLInputFactory factory = XMLInputFactory.newInstance();
+
+	static {
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+	}
+
+	private ApplicationsParser() {}
+
+	public static Applications parse(Buffer buffer) throws XMLStreamException {
+		final XMLStreamReader reader = factory.createXMLStreamReader(
+				new ByteBufInputStream(buffer.getByteBuf()));
+		try {
+			if (reader.nextTag() != XMLStreamConstants.START_ELEMENT || !LIST.equals(reader.getLocalName())) {
+				throw new XMLStreamException("Unexpected root element : " + reader.getLocalName());
+			}
+			final Applications applications = new Applications();
+			int depth = 1;
+			while (depth > 0 && reader.hasNext()) {
+				switch (reader.next()) {
+					case XMLStreamConstants.START_ELEMENT:
+						if (depth == 1 && APPLI.equals(reader.getLocalName())) {
+							final Application application = new Application();
+							application.setCode(reader.getAttributeValue(null, CODE));
+							applications.getApplications().add(application);
+						}
+						depth++;
+						break;
+					case XMLStreamConstants.END_ELEMENT:
+						depth--;
+						break;
+					default:
+						break;
+				}
+			}
+			return applications;
+		} finally {
+			reader.close();
+		}
+	}
+
+}
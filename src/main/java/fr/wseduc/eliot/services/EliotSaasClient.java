@@ -0,0 +1,316 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.services;
+
+import fr.wseduc.eliot.utils.AdaptiveLimiter;
+import fr.wseduc.eliot.utils.CircuitBreaker;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.json.JsonObject;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Client of the Eliot SaaS web services.
+ * Connections are kept alive and pooled, the pool size matches the number of requests
+ * the sync lets in flight so requests never queue on the client side.
+ * Each request has a deadline, connection errors, timeouts, 429 and 5xx answers are retried
+ * with a jittered exponential backoff, and a circuit breaker fails the calls fast while the SaaS is down.
+ * Calls go through an {@link AdaptiveLimiter} which lowers the request rate and concurrency when the SaaS slows
+ * down or sheds load, so that the nightly sync does not degrade it for the other tenants.
+ */
+public class EliotSaasClient {
+
+	private static final String PRODUCT_ETAB_URI = "/eliot-saas-util/action/webService/getProductEtabWS";
+
+	private final Vertx vertx;
+	private final HttpClient client;
+	private final String baseUri;
+	private final int maxInFlight;
+	private final long requestTimeout;
+	private final int maxRetries;
+	private final long retryDelay;
+	private final long retryMaxDelay;
+	private final CircuitBreaker breaker;
+	private final AdaptiveLimiter limiter;
+	private final LongAdder retries = new LongAdder();
+	private final LongAdder timeouts = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+
+	public EliotSaasClient(Vertx vertx, JsonObject config) throws URISyntaxException {
+		this.vertx = vertx;
+		final URI uri = new URI(config.getString("uri"));
+		maxInFlight = config.getInteger("saas-max-in-flight", 16);
+		requestTimeout = config.getLong("saas-request-timeout", 10000l);
+		maxRetries = config.getInteger("saas-retries", 2);
+		retryDelay = config.getLong("saas-retry-delay", 200l);
+		retryMaxDelay = config.getLong("saas-retry-max-delay", 5000l);
+		breaker = new CircuitBreaker(config.getInteger("saas-breaker-failures", 10),
+				config.getLong("saas-breaker-reset", 30000l));
+		limiter = new AdaptiveLimiter(vertx, config.getDouble("saas-rate", 10d),
+				config.getDouble("saas-min-rate", 1d), config.getDouble("saas-max-rate", 50d),
+				config.getDouble("saas-rate-burst", (double) maxInFlight),
+				config.getInteger("saas-min-in-flight", 1), maxInFlight,
+				config.getLong("saas-latency-target", 2000l));
+		final HttpClientOptions options = new HttpClientOptions()
+				.setDefaultHost(uri.getHost())
+				.setDefaultPort(uri.getPort())
+				.setSsl("https".equals(uri.getScheme()))
+				.setMaxPoolSize(config.getInteger("saas-pool-size", maxInFlight))
+				.setKeepAlive(config.getBoolean("saas-keep-alive", true))
+				.setIdleTimeout(config.getInteger("saas-idle-timeout", 60))
+				.setTryUseCompression(config.getBoolean("saas-compression", false));
+		client = vertx.createHttpClient(options);
+		baseUri = PRODUCT_ETAB_URI + "?appli=" + config.getString("appli-code") + "&rne=";
+	}
+
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	public String productEtabUri(String rne) {
+		return baseUri + rne;
+	}
+
+	/**
+	 * Calls getProductEtabWS for one structure. The handler is called exactly once,
+	 * with the whole response or with the error of the last attempt.
+	 * When an etag of a previous response is given, the request is conditional and the
+	 * SaaS may answer 304 with an empty body.
+	 * @param deadline time after which no attempt is made nor awaited, fails with an {@link UnavailableException}
+	 * if it is already over or if the circuit breaker is open.
+	 */
+	public void getProductEtab(final String rne, final String etag, final long deadline,
+			final Handler<AsyncResult<SaasResponse>> handler) {
+		attempt(rne, etag, deadline, 0, handler);
+	}
+
+	private void attempt(final String rne, final String etag, final long deadline, final int attempt,
+			final Handler<AsyncResult<SaasResponse>> handler) {
+		if (deadline <= System.currentTimeMillis() || breaker.isOpen()) {
+			reject(deadline, handler);
+			return;
+		}
+		limiter.acquire(new Handler<Void>() {
+			@Override
+			public void handle(Void v) {
+				final long timeout = Math.min(requestTimeout, deadline - System.currentTimeMillis());
+				if (timeout <= 0 || !breaker.allow()) {
+					limiter.cancel();
+					reject(deadline, handler);
+					return;
+				}
+				send(rne, etag, deadline, attempt, timeout, handler);
+			}
+		});
+	}
+
+	private void reject(long deadline, Handler<AsyncResult<SaasResponse>> handler) {
+		rejected.increment();
+		handler.handle(Future.<SaasResponse>failedFuture(new UnavailableException(
+				deadline <= System.currentTimeMillis() ? "Eliot sync time budget exceeded" :
+						"Eliot SaaS circuit breaker open")));
+	}
+
+	private void send(final String rne, final String etag, final long deadline, final int attempt, long timeout,
+			final Handler<AsyncResult<SaasResponse>> handler) {
+		final long start = System.nanoTime();
+		request(rne, etag, timeout, new Handler<AsyncResult<SaasResponse>>() {
+			@Override
+			public void handle(AsyncResult<SaasResponse> ar) {
+				final boolean retryable = ar.failed() || isRetryable(ar.result().getStatusCode());
+				limiter.release((System.nanoTime() - start) / 1000000, retryable);
+				if (retryable) {
+					breaker.failure();
+				} else {
+					breaker.success();
+				}
+				if (retryable && attempt < maxRetries) {
+					final long delay = backoff(attempt);
+					if (System.currentTimeMillis() + delay < deadline) {
+						retries.increment();
+						vertx.setTimer(delay, new Handler<Long>() {
+							@Override
+							public void handle(Long timerId) {
+								attempt(rne, etag, deadline, attempt + 1, handler);
+							}
+						});
+						return;
+					}
+				}
+				handler.handle(ar);
+			}
+		});
+	}
+
+	public static boolean isRetryable(int statusCode) {
+		return statusCode == 429 || statusCode >= 500;
+	}
+
+	/**
+	 * Full jitter : uniform between 1 ms and the exponential delay of the attempt.
+	 */
+	private long backoff(int attempt) {
+		final long max = Math.min(retryMaxDelay, retryDelay << Math.min(attempt, 20));
+		return 1 + ThreadLocalRandom.current().nextLong(Math.max(max, 1));
+	}
+
+	private void request(final String rne, final String etag, final long timeout,
+			final Handler<AsyncResult<SaasResponse>> handler) {
+		final Once once = new Once(vertx, handler);
+		final HttpClientRequest req = client.get(productEtabUri(rne), new Handler<HttpClientResponse>() {
+			@Override
+			public void handle(final HttpClientResponse response) {
+				response.exceptionHandler(new Handler<Throwable>() {
+					@Override
+					public void handle(Throwable t) {
+						once.handle(Future.<SaasResponse>failedFuture(t));
+					}
+				});
+				response.bodyHandler(new Handler<Buffer>() {
+					@Override
+					public void handle(Buffer body) {
+						once.handle(Future.succeededFuture(new SaasResponse(response.statusCode(),
+								response.statusMessage(), response.getHeader("ETag"), body)));
+					}
+				});
+			}
+		});
+		req.exceptionHandler(new Handler<Throwable>() {
+			@Override
+			public void handle(Throwable t) {
+				once.handle(Future.<SaasResponse>failedFuture(t));
+			}
+		});
+		if (etag != null) {
+			req.putHeader("If-None-Match", etag);
+		}
+		once.timerId = vertx.setTimer(timeout, new Handler<Long>() {
+			@Override
+			public void handle(Long timerId) {
+				once.timerId = -1;
+				if (once.called) return;
+				timeouts.increment();
+				once.handle(Future.<SaasResponse>failedFuture(
+						new TimeoutException("No answer of Eliot SaaS for " + rne + " within " + timeout + " ms")));
+				req.reset();
+			}
+		});
+		req.end();
+	}
+
+	public JsonObject metrics() {
+		return new JsonObject()
+				.put("circuit", breaker.getState().name())
+				.put("circuitOpened", breaker.getOpened())
+				.put("retries", retries.sum())
+				.put("timeouts", timeouts.sum())
+				.put("rejected", rejected.sum())
+				.put("limiter", limiter.toJson());
+	}
+
+	public void close() {
+		client.close();
+	}
+
+	/**
+	 * Calls back once and cancels the deadline of the request.
+	 */
+	private static final class Once implements Handler<AsyncResult<SaasResponse>> {
+
+		private final Vertx vertx;
+		private final Handler<AsyncResult<SaasResponse>> handler;
+		private boolean called = false;
+		private long timerId = -1;
+
+		private Once(Vertx vertx, Handler<AsyncResult<SaasResponse>> handler) {
+			this.vertx = vertx;
+			this.handler = handler;
+		}
+
+		@Override
+		public void handle(AsyncResult<SaasResponse> ar) {
+			if (called) return;
+			called = true;
+			if (timerId != -1) {
+				vertx.cancelTimer(timerId);
+			}
+			handler.handle(ar);
+		}
+
+	}
+
+	/**
+	 * The call was not attempted : the SaaS is considered down or the sync has no time left.
+	 */
+	public static class UnavailableException extends Exception {
+
+		private static final long serialVersionUID = 1L;
+
+		public UnavailableException(String message) {
+			super(message);
+		}
+
+	}
+
+	public static class SaasResponse {
+
+		private final int statusCode;
+		private final String statusMessage;
+		private final String etag;
+		private final Buffer body;
+
+		SaasResponse(int statusCode, String statusMessage, String etag, Buffer body) {
+			this.statusCode = statusCode;
+			this.statusMessage = statusMessage;
+			this.etag = etag;
+			this.body = body;
+		}
+
+		public int getStatusCode() {
+			return statusCode;
+		}
+
+		public String getStatusMessage() {
+			return statusMessage;
+		}
+
+		public String getEtag() {
+			return etag;
+		}
+
+		public Buffer getBody() {
+			return body;
+		}
+
+	}
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.services;
+
+import fr.wseduc.eliot.utils.LruCache;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import javax.crypto.Cipher;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.regex.Pattern;
+
+/**
+ * Safari detection and RSA encryption of the callback url of the Eliot third party cookie flow.
+ * User-Agent classifications are kept in a bounded LRU, ciphers are initialized once per worker
+ * thread and encryption never runs on the event loop.
+ */
+public class SafariCookieService {
+
+	private static final Logger log = LoggerFactory.getLogger(SafariCookieService.class);
+	private static final Pattern safariPattern =
+			Pattern.compile("^.* Version/[0-9\\.]+ (Mobile/[A-Z0-9]+ )?Safari/[0-9\\.]+$");
+
+	private final PublicKey eliotPublicKey;
+	private final LruCache<String, Boolean> userAgents;
+	private final WorkerExecutor cryptoExecutor;
+	private final ThreadLocal<Cipher> ciphers = new ThreadLocal<>();
+
+	public SafariCookieService(Vertx vertx, JsonObject config) {
+		final String publicKey = config.getString("eliot-public-key");
+		PublicKey key = null;
+		if (publicKey != null && !publicKey.isEmpty()) {
+			try {
+				X509EncodedKeySpec spec = new X509EncodedKeySpec(Base64.getDecoder().decode(publicKey));
+				KeyFactory kf = KeyFactory.getInstance("RSA");
+				key = kf.generatePublic(spec);
+			} catch (GeneralSecurityException e) {
+				log.error(e.getMessage(), e);
+			}
+		}
+		eliotPublicKey = key;
+		userAgents = new LruCache<>(config.getInteger("user-agent-cache-size", 1000), 0);
+		cryptoExecutor = vertx.createSharedWorkerExecutor("eliot-crypto",
+				config.getInteger("crypto-pool-size", 2));
+	}
+
+	public boolean isEnabled() {
+		return eliotPublicKey != null;
+	}
+
+	public boolean isSafari(String userAgent) {
+		if (userAgent == null) {
+			return false;
+		}
+		Boolean safari = userAgents.get(userAgent);
+		if (safari == null) {
+			safari = safariPattern.matcher(userAgent).matches();
+			userAgents.put(userAgent, safari);
+		}
+		return safari;
+	}
+
+	/**
+	 * Encrypts the callback url with the Eliot public key.
+	 * The result is base64 and url encoded, ready to be used as the rUrl parameter.
+	 */
+	public void encrypt(final String callbackUri, final Handler<AsyncResult<String>> handler) {
+		cryptoExecutor.executeBlocking(new Handler<Future<String>>() {
+			@Override
+			public void handle(Future<String> future) {
+				try {
+					final byte[] encrypted = cipher().doFinal(callbackUri.getBytes(StandardCharsets.UTF_8));
+					future.complete(URLEncoder.encode(Base64.getEncoder().encodeToString(encrypted), "UTF-8"));
+				} catch (Exception e) {
+					ciphers.remove();
+					future.fail(e);
+				}
+			}
+		}, false, handler);
+	}
+
+	private Cipher cipher() throws GeneralSecurityException {
+		Cipher c = ciphers.get();
+		if (c == null) {
+			c = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+			c.init(Cipher.ENCRYPT_MODE, eliotPublicKey);
+			ciphers.set(c);
+		}
+		return c;
+	}
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.utils;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayDeque;
+
+/**
+ * Token bucket with an adaptive concurrency limit, in front of a remote service.
+ * A call starts when a token is available and the number of calls in flight is under the limit.
+ * Both the rate and the limit grow additively while the service answers fast and are cut
+ * multiplicatively when it is overloaded (429, 5xx, timeouts) or when its smoothed latency exceeds the target.
+ * Not thread safe : it must be used from the event loop of the verticle.
+ */
+public final class AdaptiveLimiter {
+
+	private static final double DECREASE_FACTOR = 0.5;
+	private static final double LATENCY_SMOOTHING = 0.2;
+
+	private final Vertx vertx;
+	private final double minRate;
+	private final double maxRate;
+	private final double burst;
+	private final double minLimit;
+	private final double maxLimit;
+	private final long latencyTarget;
+	private final ArrayDeque<Handler<Void>> waiting = new ArrayDeque<>();
+	private double rate;
+	private double limit;
+	private double tokens;
+	private long refilledAt = System.nanoTime();
+	private double latency = -1;
+	private long decreasedAt;
+	private int inFlight;
+	private long timerId = -1;
+	private boolean draining;
+	private long decreases;
+
+	/**
+	 * @param latencyTarget smoothed latency in milliseconds above which the limiter backs off
+	 */
+	public AdaptiveLimiter(Vertx vertx, double rate, double minRate, double maxRate, double burst,
+			int minLimit, int maxLimit, long latencyTarget) {
+		this.vertx = vertx;
+		this.minRate = minRate;
+		this.maxRate = maxRate;
+		this.burst = Math.max(burst, 1);
+		this.minLimit = Math.max(minLimit, 1);
+		this.maxLimit = Math.max(maxLimit, this.minLimit);
+		this.latencyTarget = latencyTarget;
+		this.rate = Math.min(Math.max(rate, minRate), maxRate);
+		this.limit = this.maxLimit;
+		this.tokens = this.burst;
+	}
+
+	/**
+	 * Calls the handler once the call may start. Every granted call must then be ended
+	 * with {@link #release(long, boolean)} or {@link #cancel()}.
+	 */
+	public void acquire(Handler<Void> handler) {
+		waiting.add(handler);
+		drain();
+	}
+
+	/**
+	 * Ends a call and adapts the rate and the limit.
+	 * @param millis latency of the call
+	 * @param overloaded true if the service answered 429 or 5xx, or did not answer
+	 */
+	public void release(long millis, boolean overloaded) {
+		inFlight--;
+		latency = latency < 0 ? millis : latency + LATENCY_SMOOTHING * (millis - latency);
+		if (overloaded || latency > latencyTarget) {
+			decrease();
+		} else {
+			limit = Math.min(maxLimit, limit + 1 / limit);
+			rate = Math.min(maxRate, rate + 1 / limit);
+		}
+		drain();
+	}
+
+	/**
+	 * Ends a granted call which was not sent, its token is given back.
+	 */
+	public void cancel() {
+		inFlight--;
+		tokens = Math.min(burst, tokens + 1);
+		drain();
+	}
+
+	/**
+	 * The calls in flight when the service degrades end with the same signal : the limiter backs off
+	 * at most once per smoothed latency so that they only count once.
+	 */
+	private void decrease() {
+		final long now = System.currentTimeMillis();
+		if (now - decreasedAt < Math.max(latency, 1)) return;
+		decreasedAt = now;
+		limit = Math.max(minLimit, limit * DECREASE_FACTOR);
+		rate = Math.max(minRate, rate * DECREASE_FACTOR);
+		decreases++;
+	}
+
+	private void drain() {
+		if (draining) return;
+		draining = true;
+		refill();
+		while (!waiting.isEmpty() && inFlight < (int) limit && tokens >= 1) {
+			tokens--;
+			inFlight++;
+			try {
+				waiting.poll().handle(null);
+			} finally {
+				refill();
+			}
+		}
+		draining = false;
+		if (!waiting.isEmpty() && inFlight < (int) limit && timerId == -1) {
+			final long delay = Math.max(1, (long) Math.ceil((1 - tokens) * 1000 / rate));
+			timerId = vertx.setTimer(delay, new Handler<Long>() {
+				@Override
+				public void handle(Long id) {
+					timerId = -1;
+					drain();
+				}
+			});
+		}
+	}
+
+	private void refill() {
+		final long now = System.nanoTime();
+		tokens = Math.min(burst, tokens + (now - refilledAt) * rate / 1e9);
+		refilledAt = now;
+	}
+
+	public JsonObject toJson() {
+		return new JsonObject()
+				.put("rate", Math.round(rate * 100) / 100.0)
+				.put("concurrency", (int) limit)
+				.put("inFlight", inFlight)
+				.put("waiting", waiting.size())
+				.put("latency", latency < 0 ? null : Math.round(latency))
+				.put("decreases", decreases);
+	}
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.utils;
+
+import io.vertx.core.Handler;
+
+import java.util.Iterator;
+
+/**
+ * Runs an asynchronous task for each item of an iterator, with at most
+ * <code>maxInFlight</code> tasks pending at the same time.
+ * Items are pulled lazily : a new task starts only when a previous one is done.
+ * Must be used from a single vert.x context.
+ */
+public final class AsyncWindow<T> {
+
+	public interface Task<T> {
+		void run(T item, Handler<Void> done);
+	}
+
+	private final Iterator<T> items;
+	private final int maxInFlight;
+	private final Task<T> task;
+	private final Handler<Void> end;
+	private int inFlight = 0;
+	private boolean pumping = false;
+	private boolean again = false;
+	private boolean ended = false;
+
+	private AsyncWindow(Iterator<T> items, int maxInFlight, Task<T> task, Handler<Void> end) {
+		this.items = items;
+		this.maxInFlight = Math.max(1, maxInFlight);
+		this.task = task;
+		this.end = end;
+	}
+
+	public static <T> void forEach(Iterator<T> items, int maxInFlight, Task<T> task, Handler<Void> end) {
+		new AsyncWindow<>(items, maxInFlight, task, end).pump();
+	}
+
+	private void pump() {
+		if (pumping) {
+			again = true;
+			return;
+		}
+		pumping = true;
+		do {
+			again = false;
+			while (inFlight < maxInFlight && items.hasNext()) {
+				final T item = items.next();
+				inFlight++;
+				task.run(item, new Handler<Void>() {
+					private boolean done = false;
+
+					@Override
+					public void handle(Void v) {
+						if (done) return;
+						done = true;
+						inFlight--;
+						pump();
+					}
+				});
+			}
+		} while (again);
+		pumping = false;
+		if (inFlight == 0 && !items.hasNext() && !ended) {
+			ended = true;
+			end.handle(null);
+		}
+	}
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.utils;
+
+/**
+ * Thread safe circuit breaker. It opens after <code>maxFailures</code> consecutive failures and rejects
+ * every call during <code>resetTimeout</code> milliseconds. It then lets a single trial call through :
+ * a success closes it, a failure opens it again.
+ */
+public final class CircuitBreaker {
+
+	public enum State { CLOSED, OPEN, HALF_OPEN }
+
+	private final int maxFailures;
+	private final long resetTimeout;
+	private State state = State.CLOSED;
+	private int failures;
+	private long openedAt;
+	private boolean trial;
+	private long opened;
+
+	public CircuitBreaker(int maxFailures, long resetTimeout) {
+		this.maxFailures = maxFailures;
+		this.resetTimeout = resetTimeout;
+	}
+
+	/**
+	 * @return true if the call may proceed, its outcome must then be reported to success or failure.
+	 */
+	public synchronized boolean allow() {
+		if (state == State.OPEN && System.currentTimeMillis() - openedAt >= resetTimeout) {
+			state = State.HALF_OPEN;
+			trial = false;
+		}
+		if (state == State.HALF_OPEN) {
+			if (trial) {
+				return false;
+			}
+			trial = true;
+			return true;
+		}
+		return state == State.CLOSED;
+	}
+
+	/**
+	 * @return true if calls are rejected, without taking the trial call of a half open circuit.
+	 */
+	public synchronized boolean isOpen() {
+		return state == State.OPEN && System.currentTimeMillis() - openedAt < resetTimeout;
+	}
+
+	public synchronized void success() {
+		state = State.CLOSED;
+		failures = 0;
+		trial = false;
+	}
+
+	public synchronized void failure() {
+		if (state == State.HALF_OPEN || (state == State.CLOSED && ++failures >= maxFailures)) {
+			state = State.OPEN;
+			openedAt = System.currentTimeMillis();
+			failures = 0;
+			trial = false;
+			opened++;
+		}
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * @return the number of times the circuit opened.
+	 */
+	public synchronized long getOpened() {
+		return opened;
+	}
+
+}
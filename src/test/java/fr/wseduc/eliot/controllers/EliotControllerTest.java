@@ -0,0 +1,232 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.controllers;
+
+import fr.wseduc.eliot.pojo.Application;
+import fr.wseduc.eliot.pojo.Applications;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EliotControllerTest {
+
+	private static final Map<String, String> ROLES = new HashMap<>();
+	private static final Set<String> MANAGED_ROLES;
+
+	static {
+		ROLES.put("NOTES", "role-notes");
+		ROLES.put("TEXTES", "role-textes");
+		ROLES.put("SCOLARITE", "role-scolarite");
+		MANAGED_ROLES = new HashSet<>(ROLES.values());
+	}
+
+	private static Applications applications(String... codes) {
+		final Applications applications = new Applications();
+		for (String code : codes) {
+			final Application application = new Application();
+			application.setCode(code);
+			applications.getApplications().add(application);
+		}
+		return applications;
+	}
+
+	private static Set<String> set(String... values) {
+		return new HashSet<>(Arrays.asList(values));
+	}
+
+	private static JsonObject scolariteRow(String structureId, String... users) {
+		return new JsonObject()
+				.put("structureId", structureId)
+				.put("externalId", structureId + "-SCOLARITE")
+				.put("users", new JsonArray(Arrays.<Object>asList(users)));
+	}
+
+	@Test
+	public void groupsScolariteScopesByUser() {
+		final List<JsonObject> rows = Arrays.asList(
+				scolariteRow("s1", "u1", "u2"),
+				scolariteRow("s2", "u1"));
+		final JsonArray users = EliotController.scolariteScopes(rows);
+		assertEquals(2, users.size());
+		assertEquals(new JsonObject().put("userId", "u1").put("scopes", new JsonArray().add("s1").add("s2")),
+				users.getJsonObject(0));
+		assertEquals(new JsonObject().put("userId", "u2").put("scopes", new JsonArray().add("s1")),
+				users.getJsonObject(1));
+	}
+
+	@Test
+	public void listsAStructureOnceWhenTheUnionReturnsItTwice() {
+		final List<JsonObject> rows = Arrays.asList(
+				scolariteRow("s1", "u1", "u2"),
+				scolariteRow("s2", "u1"),
+				scolariteRow("s1", "u1", "u3"));
+		final JsonArray users = EliotController.scolariteScopes(rows);
+		assertEquals(3, users.size());
+		assertEquals(new JsonArray().add("s1").add("s2"), users.getJsonObject(0).getJsonArray("scopes"));
+		assertEquals(new JsonArray().add("s1"), users.getJsonObject(1).getJsonArray("scopes"));
+		assertEquals(new JsonArray().add("s1"), users.getJsonObject(2).getJsonArray("scopes"));
+	}
+
+	@Test
+	public void ignoresRowsWithoutUsers() {
+		final List<JsonObject> rows = Arrays.asList(
+				new JsonObject().put("structureId", "s1"),
+				scolariteRow("s2"));
+		assertEquals(0, EliotController.scolariteScopes(rows).size());
+	}
+
+	@Test
+	public void readsTheRolesOfAGroup() {
+		final JsonObject group = new JsonObject()
+				.put("roles", new JsonArray().add("role-notes").add(42).add("other"));
+		assertEquals(set("role-notes", "other"), EliotController.groupRoles(group));
+		assertEquals(set(), EliotController.groupRoles(new JsonObject()));
+	}
+
+	@Test
+	public void keepsAGroupWhichAlreadyHasItsRoles() {
+		final Set<String> current = set("role-notes", "role-textes", "other");
+		assertEquals(current, EliotController.desiredRoles(current, "Teachers",
+				applications("NOTES", "TEXTES"), MANAGED_ROLES, ROLES));
+	}
+
+	@Test
+	public void addsAndRemovesOnlyEliotRoles() {
+		final Set<String> current = set("role-notes", "other");
+		assertEquals(set("role-textes", "other"), EliotController.desiredRoles(current, "Teachers",
+				applications("TEXTES"), MANAGED_ROLES, ROLES));
+		assertEquals(set("other"), EliotController.desiredRoles(current, "Teachers",
+				applications(), MANAGED_ROLES, ROLES));
+	}
+
+	@Test
+	public void grantsScolariteOnlyToScolariteGroups() {
+		final Applications applications = applications("NOTES", "SCOLARITE");
+		assertEquals(set("role-notes"), EliotController.desiredRoles(set("role-scolarite"), "Teachers",
+				applications, MANAGED_ROLES, ROLES));
+		assertEquals(set("role-notes", "role-scolarite"), EliotController.desiredRoles(set(),
+				"Lycée-SCOLARITE", applications, MANAGED_ROLES, ROLES));
+	}
+
+	@Test
+	public void ignoresApplicationsWithoutRole() {
+		assertEquals(set("role-notes"), EliotController.desiredRoles(set("role-notes"), "Teachers",
+				applications("NOTES", "AGENDA"), MANAGED_ROLES, ROLES));
+	}
+
+	@Test
+	public void readsTheActiveRne() {
+		assertEquals(set("0000001A", "0000002B"), EliotController.stringSet(
+				new JsonArray().add("0000001A").add("0000002B").add("0000001A").addNull().add(3)));
+	}
+
+	@Test
+	public void computesTheActiveRneDelta() {
+		final Set<String> persisted = set("0000001A", "0000002B", "0000003C");
+		final Set<String> active = set("0000002B", "0000003C", "0000004D");
+		assertEquals(set("0000004D"), EliotController.difference(active, persisted));
+		assertEquals(set("0000001A"), EliotController.difference(persisted, active));
+		assertEquals(set("0000002B", "0000003C", "0000004D"), active);
+		assertEquals(set("0000001A", "0000002B", "0000003C"), persisted);
+	}
+
+	@Test
+	public void findsNoDeltaWhenTheActiveRneAreUnchanged() {
+		final Set<String> persisted = set("0000001A", "0000002B");
+		final Set<String> active = EliotController.stringSet(new JsonArray().add("0000002B").add("0000001A"));
+		assertEquals(set(), EliotController.difference(active, persisted));
+		assertEquals(set(), EliotController.difference(persisted, active));
+	}
+
+	@Test
+	public void shardsOnTheStructureId() {
+		assertEquals(0x3a7 % 96, EliotController.shardOf("3a7c9e12-0b5d-4f6a-8c2e-1d9f0a4b7c3e", 96));
+		assertEquals(0x3a7 % 96, EliotController.shardOf("3A7C9E12-0B5D-4F6A-8C2E-1D9F0A4B7C3E", 96));
+		assertEquals(0, EliotController.shardOf("STRUCT-1", 96));
+		assertEquals(0, EliotController.shardOf("ab", 96));
+		assertEquals(0, EliotController.shardOf(null, 96));
+	}
+
+	@Test
+	public void selectsEachPrefixInTheShardOfItsStructures() {
+		for (int shards : new int[] { 1, 7, 96, 4096 }) {
+			final Set<String> seen = new HashSet<>();
+			for (int shard = 0; shard < shards; shard++) {
+				final JsonArray prefixes = EliotController.shardPrefixes(shard, shards);
+				assertTrue(prefixes.size() >= 4096 / shards && prefixes.size() <= 4096 / shards + 1);
+				for (Object prefix : prefixes) {
+					assertEquals(3, ((String) prefix).length());
+					assertEquals(shard, EliotController.shardOf(prefix + "c9e12-0b5d", shards));
+					assertTrue(seen.add((String) prefix));
+				}
+			}
+			assertEquals(4096, seen.size());
+		}
+	}
+
+	@Test
+	public void replacesTheStructuresOfTheShard() {
+		final Map<String, Applications> current = new HashMap<>();
+		current.put("002-refreshed", applications("NOTES"));
+		current.put("004-deleted", applications("NOTES"));
+		current.put("008-unchanged", applications("NOTES"));
+		current.put("003-other-shard", applications("NOTES"));
+		final Map<String, Applications> fetched = new HashMap<>();
+		fetched.put("002-refreshed", applications("TEXTES"));
+		fetched.put("006-created", applications("AGENDA"));
+		fetched.put("008-unchanged", current.get("008-unchanged"));
+
+		final Map<String, Applications> merged = EliotController.mergeShard(current, 0, 2, fetched);
+		assertEquals(set("002-refreshed", "003-other-shard", "006-created", "008-unchanged"), merged.keySet());
+		assertEquals(fetched.get("002-refreshed"), merged.get("002-refreshed"));
+		assertEquals(current.get("003-other-shard"), merged.get("003-other-shard"));
+		assertEquals(4, current.size());
+	}
+
+	@Test
+	public void comparesEntitlementsByFingerprint() {
+		final Map<String, Applications> current = new HashMap<>();
+		current.put("s1", applications("NOTES", "TEXTES"));
+		current.put("s2", applications("AGENDA"));
+		final Map<String, Applications> next = new HashMap<>();
+		next.put("s1", applications("TEXTES", "NOTES"));
+		next.put("s2", applications("AGENDA"));
+		assertTrue(EliotController.sameEntitlements(current, next));
+
+		next.put("s2", applications("AGENDA", "NOTES"));
+		assertFalse(EliotController.sameEntitlements(current, next));
+		next.remove("s2");
+		assertFalse(EliotController.sameEntitlements(current, next));
+		next.put("s3", applications("AGENDA"));
+		assertFalse(EliotController.sameEntitlements(current, next));
+	}
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.entitlements;
+
+import fr.wseduc.eliot.pojo.Application;
+import fr.wseduc.eliot.pojo.Applications;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EntitlementSnapshotTest {
+
+	private static Map<String, Applications> structure(String id, String rne, String code) {
+		final Applications applications = new Applications();
+		applications.setRne(rne);
+		final Application application = new Application();
+		application.setCode(code);
+		applications.getApplications().add(application);
+		final Map<String, Applications> appsByStructure = new HashMap<>();
+		appsByStructure.put(id, applications);
+		return appsByStructure;
+	}
+
+	@Test
+	public void ordersByVersionWithinAnEpoch() {
+		final EntitlementSnapshot first = EntitlementSnapshot.EMPTY.next(3, structure("s1", "0000001A", "NOTES"));
+		final EntitlementSnapshot second = first.next(3, structure("s1", "0000001A", "TEXTES"));
+		assertTrue(second.isNewerThan(first));
+		assertFalse(first.isNewerThan(second));
+		assertFalse(first.isNewerThan(first));
+	}
+
+	@Test
+	public void ordersByEpochBeforeVersion() {
+		final EntitlementSnapshot old = EntitlementSnapshot.EMPTY.next(3, structure("s1", "0000001A", "NOTES"))
+				.next(3, structure("s1", "0000001A", "NOTES"));
+		final EntitlementSnapshot elected = EntitlementSnapshot.EMPTY.next(4, structure("s1", "0000001A", "TEXTES"));
+		assertTrue(elected.isNewerThan(old));
+		assertFalse(old.isNewerThan(elected));
+		assertTrue(elected.isNewerThan(EntitlementSnapshot.EMPTY));
+	}
+
+	@Test
+	public void keepsTheEpochThroughTheCluster() {
+		final EntitlementSnapshot published = EntitlementSnapshot.EMPTY.next(7, structure("s1", "0000001A", "NOTES"));
+		final EntitlementSnapshot received = EntitlementSnapshot.decode(
+				published.encode(new HashMap<String, String>()));
+		assertEquals(7, received.getEpoch());
+		assertEquals(published.getVersion(), received.getVersion());
+		assertEquals(published.getBuiltAt(), received.getBuiltAt());
+		assertFalse(received.isNewerThan(published));
+		assertFalse(published.isNewerThan(received));
+	}
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.entitlements;
+
+import fr.wseduc.eliot.controllers.EliotController.Application;
+import fr.wseduc.eliot.pojo.Applications;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class RedirectTemplatesTest {
+
+	private static final String ELIOT_URI = "https://eliot.example.com/eliot-saas/action/login?appli=ENT&lang=fr_FR";
+	private static final String[] HOSTS = {
+			"https://ent.example.com", "http://localhost:8090", "https://ent.région.fr", "https://ent.example.com/a b+c"
+	};
+	private static final String[] RNES = { "0000042Z", "0761234A", "Z&é 1" };
+
+	private RedirectTemplates templates;
+
+	@Before
+	public void setUp() {
+		final Map<String, Applications> appsByStructure = new HashMap<>();
+		for (int i = 0; i < RNES.length; i++) {
+			final Applications applications = new Applications();
+			applications.setRne(RNES[i]);
+			for (Application application : Application.values()) {
+				if (application.ordinal() % 2 == i % 2) {
+					final fr.wseduc.eliot.pojo.Application app = new fr.wseduc.eliot.pojo.Application();
+					app.setCode(application.name());
+					applications.getApplications().add(app);
+				}
+			}
+			appsByStructure.put("structure-" + i, applications);
+		}
+		templates = new RedirectTemplates(ELIOT_URI, 2);
+		templates.rebuild(EntitlementIndex.build(appsByStructure));
+	}
+
+	/**
+	 * Redirect built by the previous releases on each launch.
+	 */
+	private static String legacy(String host, String rne, Application application)
+			throws UnsupportedEncodingException {
+		return "/adapter?eliot=" + application.name().toLowerCase() + "#" + host +
+				"/cas/login?ticketAttributeName=casTicket&service=" +
+				URLEncoder.encode(ELIOT_URI + "&rne=" + rne + "&module=" + application.name() +
+						"&hostCAS=" + URLEncoder.encode(host + "/cas", "UTF-8"), "UTF-8");
+	}
+
+	@Test
+	public void matchesLegacyRedirects() throws UnsupportedEncodingException {
+		for (String host : HOSTS) {
+			for (String rne : RNES) {
+				for (Application application : Application.values()) {
+					assertEquals(legacy(host, rne, application), templates.redirect(host, rne, application));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void matchesLegacyRedirectsOfUnindexedRne() throws UnsupportedEncodingException {
+		for (Application application : Application.values()) {
+			assertEquals(legacy(HOSTS[0], "9999999X", application),
+					templates.redirect(HOSTS[0], "9999999X", application));
+		}
+	}
+
+	@Test
+	public void matchesLegacyRedirectsAfterRebuild() throws UnsupportedEncodingException {
+		templates.rebuild(EntitlementIndex.EMPTY);
+		for (String rne : RNES) {
+			assertEquals(legacy(HOSTS[1], rne, Application.NOTES), templates.redirect(HOSTS[1], rne, Application.NOTES));
+		}
+	}
+
+}
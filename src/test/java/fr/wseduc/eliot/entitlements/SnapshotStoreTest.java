@@ -0,0 +1,129 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.entitlements;
+
+import fr.wseduc.eliot.pojo.Application;
+import fr.wseduc.eliot.pojo.Applications;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class SnapshotStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File file;
+	private SnapshotStore store;
+
+	@Before
+	public void setUp() {
+		file = new File(folder.getRoot(), "data" + File.separator + "eliot.snapshot");
+		store = new SnapshotStore(file.getPath());
+	}
+
+	private static Applications applications(String rne, String... codes) {
+		final Applications applications = new Applications();
+		applications.setRne(rne);
+		for (String code : codes) {
+			final Application application = new Application();
+			application.setCode(code);
+			applications.getApplications().add(application);
+		}
+		return applications;
+	}
+
+	private static EntitlementSnapshot snapshot() {
+		final Map<String, Applications> appsByStructure = new HashMap<>();
+		appsByStructure.put("structure-1", applications("0000001A", "ABSENCES", "NOTES"));
+		appsByStructure.put("structure-2", applications("0000002B"));
+		appsByStructure.put("structure-é", applications(null, "TEXTES"));
+		return EntitlementSnapshot.EMPTY.next(0, appsByStructure);
+	}
+
+	@Test
+	public void readsNothingWithoutFile() throws IOException {
+		assertNull(store.read());
+	}
+
+	@Test
+	public void roundTrips() throws IOException {
+		final EntitlementSnapshot snapshot = snapshot();
+		final Map<String, String> etags = new HashMap<>();
+		etags.put("0000001A", "\"abc\"");
+		store.write(snapshot, etags);
+		assertArrayEquals(new String[] { "eliot.snapshot" }, file.getParentFile().list());
+
+		final SnapshotStore.Stored stored = store.read();
+		assertNotNull(stored);
+		assertEquals(snapshot.getVersion(), stored.getSnapshot().getVersion());
+		assertEquals(snapshot.getBuiltAt(), stored.getSnapshot().getBuiltAt());
+		assertEquals(etags, stored.getEtags());
+		assertEquals(snapshot.getApplications().keySet(), stored.getSnapshot().getApplications().keySet());
+		for (Map.Entry<String, Applications> entry : snapshot.getApplications().entrySet()) {
+			assertEquals(entry.getValue().fingerprint(),
+					stored.getSnapshot().getApplications().get(entry.getKey()).fingerprint());
+		}
+		assertEquals(snapshot.getIndex().size(), stored.getSnapshot().getIndex().size());
+	}
+
+	@Test
+	public void replacesPreviousFile() throws IOException {
+		store.write(snapshot(), new HashMap<String, String>());
+		final EntitlementSnapshot next = snapshot().next(0, new HashMap<String, Applications>());
+		store.write(next, new HashMap<String, String>());
+		assertEquals(next.getVersion(), store.read().getSnapshot().getVersion());
+		assertEquals(0, store.read().getSnapshot().getApplications().size());
+	}
+
+	@Test(expected = IOException.class)
+	public void detectsCorruption() throws IOException {
+		store.write(snapshot(), new HashMap<String, String>());
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(30);
+			final int b = raf.read();
+			raf.seek(30);
+			raf.write(b ^ 0x01);
+		}
+		store.read();
+	}
+
+	@Test(expected = IOException.class)
+	public void detectsTruncation() throws IOException {
+		store.write(snapshot(), new HashMap<String, String>());
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(raf.length() - 3);
+		}
+		store.read();
+	}
+
+}
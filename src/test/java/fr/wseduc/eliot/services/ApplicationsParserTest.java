@@ -0,0 +1,96 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.services;
+
+import fr.wseduc.eliot.pojo.Application;
+import fr.wseduc.eliot.pojo.Applications;
+import io.vertx.core.buffer.Buffer;
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ApplicationsParserTest {
+
+	private static Applications parse(String xml) throws XMLStreamException {
+		return ApplicationsParser.parse(Buffer.buffer(xml));
+	}
+
+	private static List<String> codes(Applications applications) {
+		final List<String> codes = new ArrayList<>();
+		for (Application application : applications.getApplications()) {
+			codes.add(application.getCode());
+		}
+		return codes;
+	}
+
+	@Test
+	public void parsesApplicationCodes() throws XMLStreamException {
+		final Applications applications = parse("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+				"<LIST>\n  <APPLI code=\"ABSENCES\"/>\n  <APPLI code=\"NOTES\"></APPLI>\n</LIST>");
+		assertEquals(Arrays.asList("ABSENCES", "NOTES"), codes(applications));
+	}
+
+	@Test
+	public void parsesEmptyList() throws XMLStreamException {
+		assertTrue(parse("<LIST/>").getApplications().isEmpty());
+	}
+
+	@Test
+	public void ignoresNestedElements() throws XMLStreamException {
+		final Applications applications = parse(
+				"<LIST><APPLI code=\"AGENDA\"><APPLI code=\"NESTED\"/></APPLI>" +
+				"<OTHER><APPLI code=\"NESTED\"/></OTHER><APPLI code=\"TEXTES\"/></LIST>");
+		assertEquals(Arrays.asList("AGENDA", "TEXTES"), codes(applications));
+	}
+
+	@Test(expected = XMLStreamException.class)
+	public void rejectsUnexpectedRoot() throws XMLStreamException {
+		parse("<html><APPLI code=\"NOTES\"/></html>");
+	}
+
+	@Test(expected = XMLStreamException.class)
+	public void rejectsTruncatedDocument() throws XMLStreamException {
+		parse("<LIST><APPLI code=\"NOTES\">");
+	}
+
+	@Test(expected = XMLStreamException.class)
+	public void rejectsEmptyBody() throws XMLStreamException {
+		parse("");
+	}
+
+	@Test(expected = XMLStreamException.class)
+	public void rejectsExternalEntities() throws XMLStreamException {
+		parse("<?xml version=\"1.0\"?><!DOCTYPE LIST [<!ENTITY xxe SYSTEM \"file:///etc/passwd\">]>" +
+				"<LIST><APPLI code=\"&xxe;\"/></LIST>");
+	}
+
+	@Test(expected = XMLStreamException.class)
+	public void rejectsExternalDtd() throws XMLStreamException {
+		parse("<?xml version=\"1.0\"?><!DOCTYPE LIST SYSTEM \"http://127.0.0.1:1/list.dtd\">" +
+				"<LIST><APPLI code=\"NOTES\"/></LIST>");
+	}
+
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.test.load;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Handler;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Answers the bus calls of the connector with synthetic data, so that syncs and launches can be loaded
+ * without an ENT : directory, app registry, sessions and Neo4j. Config :
+ * <ul>
+ *     <li>structures : number of synthetic structures (1000)</li>
+ *     <li>users : number of synthetic sessions, session-0 to session-(users - 1) (10000)</li>
+ * </ul>
+ */
+public class FakeBusResponders extends AbstractVerticle {
+
+	private static final String[] ACTIONS = { "absences", "agenda", "notes", "scolarite", "tdbase", "textes" };
+	private static final String CONTROLLER = "fr.wseduc.eliot.controllers.EliotController";
+
+	private final Map<String, JsonArray> groupRoles = new HashMap<>();
+	private final JsonArray roles = new JsonArray();
+	private int structures;
+
+	static String structureId(int i) {
+		return "structure-" + i;
+	}
+
+	static String uai(int i) {
+		return String.format("%07dZ", i);
+	}
+
+	@Override
+	public void start() throws Exception {
+		structures = config().getInteger("structures", 1000);
+		final int users = config().getInteger("users", 10000);
+
+		vertx.eventBus().consumer("directory", new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				if (!"list-structures".equals(message.body().getString("action"))) {
+					error(message);
+					return;
+				}
+				final JsonArray result = new JsonArray();
+				for (int i = 0; i < structures; i++) {
+					result.add(new JsonObject().put("id", structureId(i)).put("UAI", uai(i)));
+				}
+				ok(message, result);
+			}
+		});
+
+		vertx.eventBus().consumer("wse.app.registry.bus", new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				final JsonObject body = message.body();
+				switch (body.getString("action", "")) {
+					case "create-external-application" :
+						ok(message, null);
+						break;
+					case "create-role" :
+						final String name = body.getJsonObject("role").getString("name");
+						final JsonObject role = new JsonObject().put("id", "role-" + name).put("name", name);
+						if (!roles.contains(role)) {
+							roles.add(role);
+						}
+						ok(message, new JsonObject().put("id", role.getString("id")));
+						break;
+					case "list-roles" :
+						ok(message, roles);
+						break;
+					case "list-groups-with-roles" :
+						final String structureId = body.getString("structureId");
+						ok(message, new JsonArray()
+								.add(group(structureId + "-teachers", "Enseignants du groupe " + structureId))
+								.add(group(structureId + "-students", "Élèves du groupe " + structureId))
+								.add(group(structureId + "-SCOLARITE", structureId + "-SCOLARITE")));
+						break;
+					case "link-role-group" :
+						groupRoles.put(body.getString("groupId"), body.getJsonArray("roleIds"));
+						ok(message, null);
+						break;
+					default:
+						error(message);
+				}
+			}
+		});
+
+		vertx.eventBus().consumer("wse.session", new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				final JsonObject body = message.body();
+				switch (body.getString("action", "")) {
+					case "find" :
+						final String sessionId = body.getString("sessionId", "");
+						final int i;
+						try {
+							i = Integer.parseInt(sessionId.substring(sessionId.indexOf('-') + 1));
+						} catch (NumberFormatException | IndexOutOfBoundsException e) {
+							error(message);
+							return;
+						}
+						if (!sessionId.startsWith("session-") || i < 0 || i >= users) {
+							error(message);
+							return;
+						}
+						message.reply(new JsonObject().put("status", "ok").put("session", session(i)));
+						break;
+					case "addAttribute" :
+					case "removeAttribute" :
+						ok(message, null);
+						break;
+					default:
+						error(message);
+				}
+			}
+		});
+
+		vertx.eventBus().consumer("wse.neo4j.persistor", new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				final JsonArray statements = message.body().getJsonArray("statements");
+				if (statements != null) {
+					final JsonArray results = new JsonArray();
+					for (int i = 0; i < statements.size(); i++) {
+						results.add(new JsonArray());
+					}
+					message.reply(new JsonObject().put("status", "ok").put("results", results));
+				} else {
+					ok(message, new JsonArray());
+				}
+			}
+		});
+	}
+
+	private JsonObject group(String id, String name) {
+		final JsonArray r = groupRoles.get(id);
+		return new JsonObject().put("id", id).put("name", name).put("roles", r != null ? r.copy() : new JsonArray());
+	}
+
+	/**
+	 * One in four users is a Personnel holding a function in a second structure, the others are Teachers.
+	 */
+	private JsonObject session(int i) {
+		final String structureId = structureId(i % structures);
+		final JsonArray authorizedActions = new JsonArray();
+		for (String action : ACTIONS) {
+			authorizedActions.add(new JsonObject()
+					.put("name", CONTROLLER + "|" + action)
+					.put("displayName", "eliot." + action)
+					.put("type", "SECURED_ACTION_WORKFLOW"));
+		}
+		final JsonObject session = new JsonObject()
+				.put("userId", "user-" + i)
+				.put("login", "user." + i)
+				.put("username", "User " + i)
+				.put("structures", new JsonArray().add(structureId))
+				.put("authorizedActions", authorizedActions)
+				.put("cache", new JsonObject());
+		if (isPersonnel(i)) {
+			final String scope = structureId((i + 1) % structures);
+			session.put("type", "Personnel").put("functions", new JsonObject()
+					.put("DIR", new JsonObject()
+							.put("code", "DIR")
+							.put("functionName", "Direction")
+							.put("scope", new JsonArray().add(scope))));
+		} else {
+			session.put("type", "Teacher");
+		}
+		return session;
+	}
+
+	private static boolean isPersonnel(int i) {
+		return i % 4 == 0;
+	}
+
+	/**
+	 * @return true if the launch of the application by the user is expected to be redirected to Eliot,
+	 * false if it is expected to be denied.
+	 */
+	static boolean entitled(int user, String application, int structures, double openedRate) {
+		final String code = application.toUpperCase();
+		return FakeEliotSaas.opens(uai(user % structures), code, openedRate) ||
+				(isPersonnel(user) && FakeEliotSaas.opens(uai((user + 1) % structures), code, openedRate));
+	}
+
+	private static void ok(Message<JsonObject> message, Object result) {
+		final JsonObject reply = new JsonObject().put("status", "ok");
+		if (result != null) {
+			reply.put("result", result);
+		}
+		message.reply(reply);
+	}
+
+	private static void error(Message<JsonObject> message) {
+		message.reply(new JsonObject().put("status", "error").put("message", "unsupported"));
+	}
+
+}
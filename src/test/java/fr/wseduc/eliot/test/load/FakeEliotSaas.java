@@ -0,0 +1,148 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.test.load;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonObject;
+
+import java.util.Random;
+
+/**
+ * Stand-in of the Eliot SaaS getProductEtabWS web service, for load tests.
+ * Each RNE is always answered with the same applications, so the ETag and If-None-Match handling of the
+ * connector can be exercised. Config :
+ * <ul>
+ *     <li>port : listen port (8090)</li>
+ *     <li>latency : mean answer latency in ms (50)</li>
+ *     <li>latency-jitter : maximum random latency added, in ms (50)</li>
+ *     <li>error-rate : ratio of requests answered with 500 (0)</li>
+ *     <li>opened-rate : ratio of structures opened to Eliot (0.8)</li>
+ *     <li>padding : bytes of XML comment appended to each answer (0)</li>
+ * </ul>
+ */
+public class FakeEliotSaas extends AbstractVerticle {
+
+	static final String PRODUCT_ETAB_URI = "/eliot-saas-util/action/webService/getProductEtabWS";
+	private static final String[] CODES = { "ABSENCES", "AGENDA", "NOTES", "SCOLARITE", "TDBASE", "TEXTES" };
+
+	private final Random random = new Random();
+	private long latency;
+	private long latencyJitter;
+	private double errorRate;
+	private double openedRate;
+	private String padding;
+
+	@Override
+	public void start(final Future<Void> startFuture) throws Exception {
+		final JsonObject config = config();
+		latency = config.getLong("latency", 50l);
+		latencyJitter = config.getLong("latency-jitter", 50l);
+		errorRate = config.getDouble("error-rate", 0d);
+		openedRate = config.getDouble("opened-rate", 0.8d);
+		final StringBuilder p = new StringBuilder();
+		for (int i = config.getInteger("padding", 0); i > 0; i--) {
+			p.append('x');
+		}
+		padding = p.length() > 0 ? "<!--" + p + "-->" : "";
+		vertx.createHttpServer().requestHandler(new Handler<HttpServerRequest>() {
+			@Override
+			public void handle(final HttpServerRequest request) {
+				if (!PRODUCT_ETAB_URI.equals(request.path())) {
+					request.response().setStatusCode(404).end();
+					return;
+				}
+				final long delay = latency + (latencyJitter > 0 ? (long) (random.nextDouble() * latencyJitter) : 0);
+				if (delay < 1) {
+					answer(request);
+				} else {
+					vertx.setTimer(delay, new Handler<Long>() {
+						@Override
+						public void handle(Long timerId) {
+							answer(request);
+						}
+					});
+				}
+			}
+		}).listen(config.getInteger("port", 8090), new Handler<AsyncResult<HttpServer>>() {
+			@Override
+			public void handle(AsyncResult<HttpServer> ar) {
+				if (ar.succeeded()) {
+					startFuture.complete();
+				} else {
+					startFuture.fail(ar.cause());
+				}
+			}
+		});
+	}
+
+	private void answer(HttpServerRequest request) {
+		if (errorRate > 0 && random.nextDouble() < errorRate) {
+			request.response().setStatusCode(500).setStatusMessage("Internal Server Error").end("error");
+			return;
+		}
+		final String rne = request.params().get("rne");
+		final String body = productEtab(rne, openedRate) + padding;
+		final String etag = "\"" + Integer.toHexString(body.hashCode()) + "\"";
+		if (etag.equals(request.headers().get("If-None-Match"))) {
+			request.response().setStatusCode(304).putHeader("ETag", etag).end();
+			return;
+		}
+		request.response()
+				.putHeader("Content-Type", "application/xml; charset=utf-8")
+				.putHeader("ETag", etag)
+				.end(body);
+	}
+
+	/**
+	 * @return the applications of the structure, derived from its RNE.
+	 */
+	static String productEtab(String rne, double openedRate) {
+		final StringBuilder sb = new StringBuilder("<LIST>");
+		for (int i = 0; i < CODES.length; i++) {
+			if (opens(rne, i, openedRate)) {
+				sb.append("<APPLI code=\"").append(CODES[i]).append("\"/>");
+			}
+		}
+		return sb.append("</LIST>").toString();
+	}
+
+	/**
+	 * @return true if the structure of the RNE is opened to the application.
+	 */
+	static boolean opens(String rne, String code, double openedRate) {
+		for (int i = 0; i < CODES.length; i++) {
+			if (CODES[i].equals(code)) {
+				return opens(rne, i, openedRate);
+			}
+		}
+		return false;
+	}
+
+	private static boolean opens(String rne, int code, double openedRate) {
+		final int h = rne != null ? rne.hashCode() & 0x7fffffff : 0;
+		return (h % 1000) < openedRate * 1000 && (((h >> code) & 1) == 1 || code == 0);
+	}
+
+}
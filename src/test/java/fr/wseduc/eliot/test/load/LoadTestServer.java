@@ -0,0 +1,190 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.test.load;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.Random;
+
+/**
+ * Starts the connector with the fake Eliot SaaS and the fake bus responders, for the Gatling simulations.
+ * A small harness, on eliot.harness-port (8031), runs a full sync on <code>POST /load/sync</code> and
+ * answers with the sync metrics of the run once it is over. <code>GET /load/launches?entitled=true&amp;count=n</code>
+ * answers n random (session, application) launches expected to be redirected, or denied if entitled is false.
+ * <p>
+ * System properties : eliot.port (8029), eliot.saas-port (8090), eliot.structures (1000),
+ * eliot.users (10000), eliot.saas-latency (50), eliot.saas-latency-jitter (50), eliot.saas-error-rate (0),
+ * eliot.saas-opened-rate (0.8), eliot.saas-padding (0), eliot.sync-timeout (600000).
+ */
+public class LoadTestServer {
+
+	private static final Logger log = LoggerFactory.getLogger(LoadTestServer.class);
+	private static final String[] APPLICATIONS = { "absences", "agenda", "notes", "scolarite", "tdbase", "textes" };
+
+	public static void main(String[] args) {
+		final Vertx vertx = Vertx.vertx();
+		final int port = Integer.getInteger("eliot.port", 8029);
+		final int saasPort = Integer.getInteger("eliot.saas-port", 8090);
+		final int structures = Integer.getInteger("eliot.structures", 1000);
+		final int users = Integer.getInteger("eliot.users", 10000);
+		final double openedRate = Double.parseDouble(System.getProperty("eliot.saas-opened-rate", "0.8"));
+
+		final JsonObject saasConfig = new JsonObject()
+				.put("port", saasPort)
+				.put("latency", Long.getLong("eliot.saas-latency", 50l))
+				.put("latency-jitter", Long.getLong("eliot.saas-latency-jitter", 50l))
+				.put("error-rate", Double.parseDouble(System.getProperty("eliot.saas-error-rate", "0")))
+				.put("opened-rate", openedRate)
+				.put("padding", Integer.getInteger("eliot.saas-padding", 0));
+		final JsonObject busConfig = new JsonObject()
+				.put("structures", structures)
+				.put("users", users);
+		final JsonObject eliotConfig = new JsonObject()
+				.put("main", "fr.wseduc.eliot.Eliot")
+				.put("port", port)
+				.put("host", "http://localhost:" + port)
+				.put("mode", "dev")
+				.put("ssl", false)
+				.put("app-name", "Eliot")
+				.put("app-address", "/eliot")
+				.put("uri", "http://localhost:" + saasPort)
+				.put("eliotUri", "http://localhost:" + saasPort + "/eliot")
+				.put("appli-code", "LOAD")
+				.put("exported-delay", 1)
+				.put("sunday-only", false)
+				.put("metrics-enabled", true);
+
+		vertx.deployVerticle(new FakeBusResponders(), new DeploymentOptions().setConfig(busConfig));
+		vertx.deployVerticle(new FakeEliotSaas(), new DeploymentOptions().setConfig(saasConfig),
+				new Handler<AsyncResult<String>>() {
+			@Override
+			public void handle(AsyncResult<String> ar) {
+				if (ar.failed()) {
+					log.error("Error starting the fake Eliot SaaS.", ar.cause());
+					return;
+				}
+				vertx.deployVerticle("fr.wseduc.eliot.Eliot", new DeploymentOptions().setConfig(eliotConfig),
+						new Handler<AsyncResult<String>>() {
+					@Override
+					public void handle(AsyncResult<String> ar) {
+						if (ar.succeeded()) {
+							log.info("Eliot load test server started on port " + port);
+						} else {
+							log.error("Error starting Eliot.", ar.cause());
+						}
+					}
+				});
+			}
+		});
+
+		vertx.createHttpServer().requestHandler(new Handler<HttpServerRequest>() {
+			@Override
+			public void handle(final HttpServerRequest request) {
+				if ("POST".equals(request.method().name()) && "/load/sync".equals(request.path())) {
+					sync(vertx, request);
+				} else if ("GET".equals(request.method().name()) && "/load/launches".equals(request.path())) {
+					launches(request, structures, users, openedRate);
+				} else {
+					request.response().setStatusCode(404).end();
+				}
+			}
+		}).listen(Integer.getInteger("eliot.harness-port", 8031));
+	}
+
+	/**
+	 * Sends an ELIOT export event to the connector, then polls its sync metrics until the run is over.
+	 */
+	private static void sync(final Vertx vertx, final HttpServerRequest request) {
+		syncMetrics(vertx, new Handler<JsonObject>() {
+			@Override
+			public void handle(JsonObject before) {
+				if (before == null) {
+					request.response().setStatusCode(503).end();
+					return;
+				}
+				final long previous = before.getLong("runs", 0l);
+				final long deadline = System.currentTimeMillis() + Long.getLong("eliot.sync-timeout", 600000l);
+				vertx.eventBus().send("user.repository", new JsonObject()
+						.put("action", "exported")
+						.put("exportFormat", "ELIOT"));
+				vertx.setPeriodic(200, new Handler<Long>() {
+					@Override
+					public void handle(final Long timerId) {
+						syncMetrics(vertx, new Handler<JsonObject>() {
+							@Override
+							public void handle(JsonObject metrics) {
+								final JsonObject last = metrics != null ? metrics.getJsonObject("last") : null;
+								if (last != null && last.getLong("id", 0l) > previous) {
+									vertx.cancelTimer(timerId);
+									request.response()
+											.putHeader("Content-Type", "application/json")
+											.end(last.encode());
+								} else if (System.currentTimeMillis() > deadline) {
+									vertx.cancelTimer(timerId);
+									request.response().setStatusCode(504).end();
+								}
+							}
+						});
+					}
+				});
+			}
+		});
+	}
+
+	private static void launches(HttpServerRequest request, int structures, int users, double openedRate) {
+		final boolean entitled = !"false".equals(request.params().get("entitled"));
+		final String c = request.params().get("count");
+		final int count = c != null ? Integer.parseInt(c) : 1000;
+		final Random random = new Random();
+		final JsonArray launches = new JsonArray();
+		for (int attempts = 0; launches.size() < count && attempts < count * 100; attempts++) {
+			final int user = random.nextInt(users);
+			final String application = APPLICATIONS[random.nextInt(APPLICATIONS.length)];
+			if (FakeBusResponders.entitled(user, application, structures, openedRate) == entitled) {
+				launches.add(new JsonObject().put("session", "session-" + user).put("application", application));
+			}
+		}
+		request.response().putHeader("Content-Type", "application/json").end(launches.encode());
+	}
+
+	private static void syncMetrics(Vertx vertx, final Handler<JsonObject> handler) {
+		vertx.eventBus().send("fr.wseduc.eliot", new JsonObject().put("action", "sync-metrics"),
+				new Handler<AsyncResult<Message<JsonObject>>>() {
+			@Override
+			public void handle(AsyncResult<Message<JsonObject>> ar) {
+				if (ar.succeeded() && "ok".equals(ar.result().body().getString("status"))) {
+					handler.handle(ar.result().body().getJsonObject("result"));
+				} else {
+					handler.handle(null);
+				}
+			}
+		});
+	}
+
+}
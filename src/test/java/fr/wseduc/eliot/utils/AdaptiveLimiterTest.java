@@ -0,0 +1,151 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.utils;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveLimiterTest {
+
+	private Vertx vertx;
+
+	@Before
+	public void setUp() {
+		vertx = Vertx.vertx();
+	}
+
+	@After
+	public void tearDown() {
+		vertx.close();
+	}
+
+	private static Handler<Void> count(final AtomicInteger granted) {
+		return new Handler<Void>() {
+			@Override
+			public void handle(Void v) {
+				granted.incrementAndGet();
+			}
+		};
+	}
+
+	@Test
+	public void boundsCallsInFlight() {
+		final AdaptiveLimiter limiter = new AdaptiveLimiter(vertx, 1000, 1, 1000, 100, 1, 4, 1000);
+		final AtomicInteger granted = new AtomicInteger();
+		for (int i = 0; i < 6; i++) {
+			limiter.acquire(count(granted));
+		}
+		assertEquals(4, granted.get());
+		assertEquals(2, limiter.toJson().getInteger("waiting").intValue());
+		limiter.release(10, false);
+		assertEquals(5, granted.get());
+		limiter.cancel();
+		assertEquals(6, granted.get());
+		assertEquals(4, limiter.toJson().getInteger("inFlight").intValue());
+	}
+
+	@Test
+	public void halvesOnOverload() {
+		final AdaptiveLimiter limiter = new AdaptiveLimiter(vertx, 100, 1, 1000, 100, 1, 8, 1000);
+		limiter.acquire(count(new AtomicInteger()));
+		limiter.release(10, true);
+		assertEquals(4, limiter.toJson().getInteger("concurrency").intValue());
+		assertEquals(50d, limiter.toJson().getDouble("rate"), 0.001);
+		assertEquals(1, limiter.toJson().getLong("decreases").longValue());
+	}
+
+	@Test
+	public void halvesOnHighLatency() {
+		final AdaptiveLimiter limiter = new AdaptiveLimiter(vertx, 100, 1, 1000, 100, 1, 8, 200);
+		limiter.acquire(count(new AtomicInteger()));
+		limiter.release(500, false);
+		assertEquals(4, limiter.toJson().getInteger("concurrency").intValue());
+		assertEquals(1, limiter.toJson().getLong("decreases").longValue());
+	}
+
+	@Test
+	public void neverGoesBelowMinimums() {
+		final AdaptiveLimiter limiter = new AdaptiveLimiter(vertx, 4, 3, 1000, 100, 2, 3, 1000);
+		limiter.acquire(count(new AtomicInteger()));
+		limiter.release(10, true);
+		assertEquals(2, limiter.toJson().getInteger("concurrency").intValue());
+		assertEquals(3d, limiter.toJson().getDouble("rate"), 0.001);
+	}
+
+	@Test
+	public void growsBackAdditively() {
+		final AdaptiveLimiter limiter = new AdaptiveLimiter(vertx, 100, 1, 120, 1000, 1, 8, 1000);
+		final AtomicInteger granted = new AtomicInteger();
+		limiter.acquire(count(granted));
+		limiter.release(10, true);
+		assertEquals(4, limiter.toJson().getInteger("concurrency").intValue());
+		int previous = 4;
+		for (int i = 0; i < 100; i++) {
+			limiter.acquire(count(granted));
+			limiter.release(10, false);
+			final int concurrency = limiter.toJson().getInteger("concurrency");
+			assertTrue(concurrency >= previous && concurrency <= previous + 1);
+			previous = concurrency;
+		}
+		assertEquals(8, previous);
+		assertEquals(101, granted.get());
+		assertTrue(limiter.toJson().getDouble("rate") > 50d);
+		assertTrue(limiter.toJson().getDouble("rate") <= 120d);
+	}
+
+	@Test
+	public void paceCallsAtTheTokenRate() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(1);
+		final AtomicLong elapsed = new AtomicLong();
+		vertx.runOnContext(new Handler<Void>() {
+			@Override
+			public void handle(Void v) {
+				final AdaptiveLimiter limiter = new AdaptiveLimiter(vertx, 50, 1, 50, 1, 1, 100, 1000);
+				final long start = System.nanoTime();
+				final AtomicInteger granted = new AtomicInteger();
+				for (int i = 0; i < 11; i++) {
+					limiter.acquire(new Handler<Void>() {
+						@Override
+						public void handle(Void v) {
+							if (granted.incrementAndGet() == 11) {
+								elapsed.set((System.nanoTime() - start) / 1000000);
+								latch.countDown();
+							}
+						}
+					});
+				}
+			}
+		});
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertTrue("10 calls paced at 50/s took " + elapsed.get() + " ms", elapsed.get() >= 180);
+	}
+
+}
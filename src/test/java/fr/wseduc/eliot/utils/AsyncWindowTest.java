@@ -0,0 +1,132 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.utils;
+
+import io.vertx.core.Handler;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class AsyncWindowTest {
+
+	private static List<Integer> items(int size) {
+		final List<Integer> items = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			items.add(i);
+		}
+		return items;
+	}
+
+	@Test
+	public void endsOnceWithoutItems() {
+		final AtomicInteger ends = new AtomicInteger();
+		AsyncWindow.forEach(Collections.<Integer>emptyIterator(), 4, new AsyncWindow.Task<Integer>() {
+			@Override
+			public void run(Integer item, Handler<Void> done) {
+				throw new AssertionError("No item expected");
+			}
+		}, new Handler<Void>() {
+			@Override
+			public void handle(Void v) {
+				ends.incrementAndGet();
+			}
+		});
+		assertEquals(1, ends.get());
+	}
+
+	@Test
+	public void boundsTasksInFlight() {
+		final List<Handler<Void>> pending = new ArrayList<>();
+		final List<Integer> started = new ArrayList<>();
+		final AtomicInteger maxInFlight = new AtomicInteger();
+		final AtomicInteger ends = new AtomicInteger();
+		AsyncWindow.forEach(items(10).iterator(), 3, new AsyncWindow.Task<Integer>() {
+			@Override
+			public void run(Integer item, Handler<Void> done) {
+				started.add(item);
+				pending.add(done);
+				maxInFlight.set(Math.max(maxInFlight.get(), pending.size()));
+			}
+		}, new Handler<Void>() {
+			@Override
+			public void handle(Void v) {
+				ends.incrementAndGet();
+			}
+		});
+		assertEquals(3, started.size());
+		while (!pending.isEmpty()) {
+			assertEquals(0, ends.get());
+			pending.remove(0).handle(null);
+		}
+		assertEquals(items(10), started);
+		assertEquals(3, maxInFlight.get());
+		assertEquals(1, ends.get());
+	}
+
+	@Test
+	public void ignoresTasksDoneTwice() {
+		final List<Handler<Void>> pending = new ArrayList<>();
+		final AtomicInteger ends = new AtomicInteger();
+		AsyncWindow.forEach(items(3).iterator(), 1, new AsyncWindow.Task<Integer>() {
+			@Override
+			public void run(Integer item, Handler<Void> done) {
+				pending.add(done);
+			}
+		}, new Handler<Void>() {
+			@Override
+			public void handle(Void v) {
+				ends.incrementAndGet();
+			}
+		});
+		pending.get(0).handle(null);
+		pending.get(0).handle(null);
+		assertEquals(2, pending.size());
+		pending.get(1).handle(null);
+		pending.get(2).handle(null);
+		pending.get(2).handle(null);
+		assertEquals(1, ends.get());
+	}
+
+	@Test
+	public void completesSynchronousTasksWithoutRecursion() {
+		final AtomicInteger runs = new AtomicInteger();
+		final AtomicInteger ends = new AtomicInteger();
+		AsyncWindow.forEach(items(200000).iterator(), 8, new AsyncWindow.Task<Integer>() {
+			@Override
+			public void run(Integer item, Handler<Void> done) {
+				runs.incrementAndGet();
+				done.handle(null);
+			}
+		}, new Handler<Void>() {
+			@Override
+			public void handle(Void v) {
+				ends.incrementAndGet();
+			}
+		});
+		assertEquals(200000, runs.get());
+		assertEquals(1, ends.get());
+	}
+
+}
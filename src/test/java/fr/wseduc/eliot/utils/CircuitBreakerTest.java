@@ -0,0 +1,93 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+	private static final long HOUR = 60 * 60 * 1000l;
+
+	@Test
+	public void opensAfterConsecutiveFailures() {
+		final CircuitBreaker breaker = new CircuitBreaker(3, HOUR);
+		for (int i = 0; i < 2; i++) {
+			assertTrue(breaker.allow());
+			breaker.failure();
+		}
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertTrue(breaker.allow());
+		breaker.failure();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertTrue(breaker.isOpen());
+		assertFalse(breaker.allow());
+		assertEquals(1, breaker.getOpened());
+	}
+
+	@Test
+	public void successResetsFailures() {
+		final CircuitBreaker breaker = new CircuitBreaker(2, HOUR);
+		breaker.failure();
+		breaker.success();
+		breaker.failure();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		breaker.failure();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+	}
+
+	@Test
+	public void letsASingleTrialThroughAfterReset() {
+		final CircuitBreaker breaker = new CircuitBreaker(1, 0);
+		breaker.failure();
+		assertFalse(breaker.isOpen());
+		assertTrue(breaker.allow());
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertFalse(breaker.allow());
+		breaker.success();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertTrue(breaker.allow());
+	}
+
+	@Test
+	public void failedTrialOpensAgain() {
+		final CircuitBreaker breaker = new CircuitBreaker(5, 0);
+		for (int i = 0; i < 5; i++) {
+			breaker.failure();
+		}
+		assertTrue(breaker.allow());
+		breaker.failure();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertEquals(2, breaker.getOpened());
+	}
+
+	@Test
+	public void staysOpenUntilReset() throws InterruptedException {
+		final CircuitBreaker breaker = new CircuitBreaker(1, 50);
+		breaker.failure();
+		assertFalse(breaker.allow());
+		Thread.sleep(80);
+		assertTrue(breaker.allow());
+	}
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.test.load
+
+import io.gatling.core.Predef._
+import io.gatling.http.Predef._
+
+import scala.concurrent.duration._
+
+/**
+ * Concurrent launches of the Eliot applications by the synthetic sessions of the LoadTestServer.
+ * Entitled launches must be redirected to Eliot and denied launches must be answered 401, the two populations
+ * are fed by the harness and asserted separately. Arrivals ramp up to eliot.rate entitled launches per second (200)
+ * and eliot.denied-rate denied launches per second (20) during eliot.ramp seconds (30), then stay constant
+ * during eliot.duration seconds (120).
+ */
+class EliotLaunchSimulation extends Simulation {
+
+  val baseUrl = System.getProperty("eliot.url", "http://localhost:8029")
+  val harnessUrl = System.getProperty("eliot.harness-url", "http://localhost:8031")
+  val samples = Integer.getInteger("eliot.samples", 10000).intValue
+  val rate = Integer.getInteger("eliot.rate", 200).intValue
+  val deniedRate = Integer.getInteger("eliot.denied-rate", 20).intValue
+  val ramp = Integer.getInteger("eliot.ramp", 30).intValue
+  val duration = Integer.getInteger("eliot.duration", 120).intValue
+
+  val httpConf = http.baseURL(baseUrl).disableFollowRedirect
+
+  val entitledLaunches = jsonUrl(harnessUrl + "/load/launches?entitled=true&count=" + samples).random
+  val deniedLaunches = jsonUrl(harnessUrl + "/load/launches?entitled=false&count=" + samples).random
+
+  val entitled = scenario("Eliot launch")
+    .feed(entitledLaunches)
+    .exec(addCookie(Cookie("oneSessionId", "${session}")))
+    .exec(http("entitled launch")
+      .get("/eliot/${application}")
+      .check(status.is(302)))
+
+  val denied = scenario("Eliot denied launch")
+    .feed(deniedLaunches)
+    .exec(addCookie(Cookie("oneSessionId", "${session}")))
+    .exec(http("denied launch")
+      .get("/eliot/${application}")
+      .check(status.is(401)))
+
+  setUp(
+      entitled.inject(
+        rampUsersPerSec(1) to rate during (ramp seconds),
+        constantUsersPerSec(rate) during (duration seconds)),
+      denied.inject(
+        rampUsersPerSec(1) to deniedRate during (ramp seconds),
+        constantUsersPerSec(deniedRate) during (duration seconds)))
+    .protocols(httpConf)
+    .assertions(
+      details("entitled launch").successfulRequests.percent.gte(99),
+      details("denied launch").successfulRequests.percent.gte(99))
+}
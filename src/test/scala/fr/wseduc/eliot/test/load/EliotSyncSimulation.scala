@@ -0,0 +1,49 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie, Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package fr.wseduc.eliot.test.load
+
+import io.gatling.core.Predef._
+import io.gatling.http.Predef._
+
+/**
+ * Full sync of the synthetic structures of the LoadTestServer, repeated eliot.syncs times (3).
+ * The first run fetches every structure, the next ones exercise the ETag and differential paths.
+ */
+class EliotSyncSimulation extends Simulation {
+
+  val harnessUrl = System.getProperty("eliot.harness-url", "http://localhost:8031")
+  val syncs = Integer.getInteger("eliot.syncs", 3).intValue
+
+  val httpConf = http.baseURL(harnessUrl)
+
+  val scn = scenario("Eliot full sync")
+    .repeat(syncs) {
+      exec(http("sync")
+        .post("/load/sync")
+        .check(status.is(200))
+        .check(jsonPath("$.completed").ofType[Boolean].is(true))
+        .check(jsonPath("$.structures").ofType[Int].not(0))
+        .check(jsonPath("$.parseFailures").ofType[Int].is(0)))
+    }
+
+  setUp(scn.inject(atOnceUsers(1)))
+    .protocols(httpConf)
+    .assertions(global.failedRequests.count.is(0))
+}